@@ -221,6 +221,14 @@ public class Balancer {
 
 	public static void greedyKWayEdgeBalance(final MetisGraph metisGraph, int nparts, float[] tpwgts, float ubfactor,
 			int npasses) {
+		greedyKWayEdgeBalance(metisGraph, nparts, tpwgts, ubfactor, npasses, null);
+	}
+
+	/**
+	 * Same as above, moving no more nodes away from their previous partition than the budget allows
+	 */
+	static void greedyKWayEdgeBalance(final MetisGraph metisGraph, int nparts, float[] tpwgts, float ubfactor,
+			int npasses, MigrationBudget budget) {
 
 		int[] minwgts = new int[nparts];
 		int[] maxwgts = new int[nparts];
@@ -290,6 +298,9 @@ public class Balancer {
 						&& higainData.partEd[k] - higainData.getIdegree() < 0)
 					continue;
 
+				if (budget != null && !budget.tryMove(higainData, to))
+					continue; /* The migration budget is spent */
+
 				metisGraph.setMinCut(metisGraph.getMinCut() - (higainData.partEd[k] - higainData.getIdegree()));
 
 				/* Update where, weight, and ID/ED information of the vertex you moved */
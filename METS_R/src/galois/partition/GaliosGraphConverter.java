@@ -29,6 +29,10 @@ public class GaliosGraphConverter<T> implements ProjectionListener<T> {
 	public ArrayList<Integer> partitionWeights;
 	public ArrayList<Road> ResolvedRoads; // Roads that can be resolved from the graph transformation
 	public ArrayList<Road> LeftOverRoads; // Roads that are not resolvable from graph transformation
+	// Edges in the order they are added, kept to update the weights of the Galois graph in place
+	private ArrayList<Road> edgeRoads;
+	private ArrayList<GNode<MetisNode>> edgeSources;
+	private ArrayList<GNode<MetisNode>> edgeDests;
 	private int nodeNum;
 	private int edgeNum;
 
@@ -48,6 +52,9 @@ public class GaliosGraphConverter<T> implements ProjectionListener<T> {
 		edgeNum = 0;
 		ResolvedRoads = new ArrayList<Road>();
 		LeftOverRoads = new ArrayList<Road>();
+		edgeRoads = new ArrayList<Road>();
+		edgeSources = new ArrayList<GNode<MetisNode>>();
+		edgeDests = new ArrayList<GNode<MetisNode>>();
 
 		// Setting the alpha, beta, gamma
 		alpha = GlobalVariables.PART_ALPHA;
@@ -111,6 +118,9 @@ public class GaliosGraphConverter<T> implements ProjectionListener<T> {
 
 				GaliosGraph.addEdge(n1, n2, edgeWeight);
 				GaliosGraph.addEdge(n2, n1, edgeWeight); // We input an undirected graph
+				edgeRoads.add(road);
+				edgeSources.add(n1);
+				edgeDests.add(n2);
 				n1.getData().addEdgeWeight(edgeWeight); // This update the sum of weights for edges adjacent this node
 				n1.getData().incNumEdges();
 				n2.getData().addEdgeWeight(edgeWeight);
@@ -133,6 +143,39 @@ public class GaliosGraphConverter<T> implements ProjectionListener<T> {
 		return null;
 	}
 
+	/*
+	 * Refresh the edge and vertex weights of the Galois graph built by the last
+	 * RepastToGaliosGraph(false) call with the current vehicle counts, keeping the
+	 * partition stored in its nodes. Returns null if the road network has changed
+	 * since, in which case the graph needs to be rebuilt.
+	 */
+	public MetisGraph updateGaliosGraphWeights() {
+		if (RepastGraph == null || RepastGraph.getVertexCount() != nodeNum
+				|| RepastGraph.getEdgeCount() != edgeRoads.size()) {
+			return null;
+		}
+		for (GNode<MetisNode> n : nodes) {
+			n.getData().setWeight(1);
+			n.getData().setAdjWgtSum(0);
+		}
+		for (int i = 0; i < edgeRoads.size(); i++) {
+			Road road = edgeRoads.get(i);
+			int edgeWeight = 1;
+			if (road != null) {
+				edgeWeight = 1 + road.getVehicleNum() * this.alpha + road.getShadowVehicleNum() * this.beta
+						+ road.getFutureRoutingVehNum() * this.gamma;
+			}
+			GNode<MetisNode> n1 = edgeSources.get(i);
+			GNode<MetisNode> n2 = edgeDests.get(i);
+			GaliosGraph.setEdgeData(n1, n2, edgeWeight);
+			GaliosGraph.setEdgeData(n2, n1, edgeWeight);
+			n1.getData().addEdgeWeight(edgeWeight);
+			n2.getData().addEdgeWeight(edgeWeight);
+			n2.getData().setWeight(n2.getData().getWeight() - 1 + edgeWeight);
+		}
+		return metisGraph;
+	}
+
 	/*
 	 * Convert from Galois graph to Repast graph: We only need the partitioned road
 	 * sets and the roads between partitions The RepastToGaliosGraph() method must
@@ -42,6 +42,14 @@ public class KWayRefiner {
 
 	public void refineKWay(MetisGraph metisGraph, MetisGraph orgGraph, float[] tpwgts, float ubfactor, int nparts)
 			throws ExecutionException {
+		refineKWay(metisGraph, orgGraph, tpwgts, ubfactor, nparts, null);
+	}
+
+	/**
+	 * Same as above, moving no more nodes away from their previous partition than the budget allows
+	 */
+	void refineKWay(MetisGraph metisGraph, MetisGraph orgGraph, float[] tpwgts, float ubfactor, int nparts,
+			MigrationBudget budget) throws ExecutionException {
 		metisGraph.computeKWayPartitionParams(nparts);
 		int nlevels = 0;
 		MetisGraph metisGraphTemp = metisGraph;
@@ -51,10 +59,11 @@ public class KWayRefiner {
 		}
 		int i = 0;
 		RandomKwayEdgeRefiner rkRefiner = new RandomKwayEdgeRefiner(tpwgts, nparts, ubfactor, 10, 1);
+		rkRefiner.setMigrationBudget(budget);
 		while (!metisGraph.equals(orgGraph)) {
 			if (2 * i >= nlevels && !metisGraph.isBalanced(tpwgts, (float) 1.04 * ubfactor)) {
 				metisGraph.computeKWayBalanceBoundary();
-				Balancer.greedyKWayEdgeBalance(metisGraph, nparts, tpwgts, ubfactor, 8);
+				Balancer.greedyKWayEdgeBalance(metisGraph, nparts, tpwgts, ubfactor, 8, budget);
 				metisGraph.computeKWayBoundary();
 			}
 			rkRefiner.refine(metisGraph);
@@ -64,14 +73,14 @@ public class KWayRefiner {
 		}
 		if (2 * i >= nlevels && !metisGraph.isBalanced(tpwgts, (float) 1.04 * ubfactor)) {
 			metisGraph.computeKWayBalanceBoundary();
-			Balancer.greedyKWayEdgeBalance(metisGraph, nparts, tpwgts, ubfactor, 8);
+			Balancer.greedyKWayEdgeBalance(metisGraph, nparts, tpwgts, ubfactor, 8, budget);
 			metisGraph.computeKWayBoundary();
 		}
 		rkRefiner.refine(metisGraph);
 
 		if (!metisGraph.isBalanced(tpwgts, ubfactor)) {
 			metisGraph.computeKWayBalanceBoundary();
-			Balancer.greedyKWayEdgeBalance(metisGraph, nparts, tpwgts, ubfactor, 8);
+			Balancer.greedyKWayEdgeBalance(metisGraph, nparts, tpwgts, ubfactor, 8, budget);
 			rkRefiner.refine(metisGraph);
 		}
 	}
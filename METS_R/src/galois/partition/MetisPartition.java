@@ -21,7 +21,9 @@ File: AbstractMain.java
 
 package galois.partition;
 
+import galois.objects.graph.GNode;
 import galois.objects.graph.IntGraph;
+import galois.partition.GrowBisection.SaveNodesToArray;
 import mets_r.ContextCreator;
 import mets_r.GlobalVariables;
 import mets_r.facility.ChargingStation;
@@ -31,20 +33,26 @@ import mets_r.facility.Zone;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.concurrent.ExecutionException;
 
 public class MetisPartition {
 	private int nPartition;
+	private int nRoadChunk; // Number of road chunks per partition, chunks can be picked up by any idle worker
 	private ArrayList<ArrayList<Road>> partitionedInRoads;
 	private ArrayList<Road> partitionedBwRoads;
+	private ArrayList<ArrayList<Road>> partitionedBwRoadGroups; // Boundary roads colored into independent groups
 	private ArrayList<ArrayList<Zone>> partitionedZones;
 	private ArrayList<ArrayList<ChargingStation>> partitionedChargingStation;
 	private ArrayList<ArrayList<Signal>> partitionedSignals;
 	private ArrayList<Integer> backgroundLoads;
 	private int partitionDuration; // how old is the current partition when next partitioning occurs
+	private GaliosGraphConverter<?> lastGraphConverter; // Graph of the last partitioning, kept for incremental repartitioning
+	private double imbalanceBeforeRepartition; // Road phase imbalance that led to the last repartitioning, -1 if none pending
 
 	public MetisPartition(int nparts) {
 		this.nPartition = nparts;
+		this.nRoadChunk = Math.max(1, GlobalVariables.ROAD_CHUNKS_PER_PARTITION);
 	}
 
 	public ArrayList<ArrayList<Road>> getPartitionedInRoads() {
@@ -55,6 +63,10 @@ public class MetisPartition {
 		return this.partitionedBwRoads;
 	}
 
+	public ArrayList<ArrayList<Road>> getPartitionedBwRoadGroups() {
+		return this.partitionedBwRoadGroups;
+	}
+
 	public ArrayList<ArrayList<Zone>> getpartitionedZones() {
 		return this.partitionedZones;
 	}
@@ -79,6 +91,7 @@ public class MetisPartition {
 			partitionedSignals.add(new ArrayList<Signal>());
 		}
 		this.partitionDuration = 0;
+		this.imbalanceBeforeRepartition = -1;
 		this.backgroundLoads = new ArrayList<Integer>();
 
 		// Partition Zone by prospect demand
@@ -150,51 +163,191 @@ public class MetisPartition {
 			backgroundLoads.add(totRequest.get(i).intValue() + totCharger.get(i) + totSignal.get(i));
 		}
 		
+		long start_t = System.nanoTime();
 		GaliosGraphConverter<?> graphConverter = new GaliosGraphConverter<Object>();
 		MetisGraph metisGraph = graphConverter.RepastToGaliosGraph(true);
-		System.gc(); // For garbage collection
-		IntGraph<MetisNode> resultGraph = partition(metisGraph, nPartition);
+		IntGraph<MetisNode> resultGraph = partition(metisGraph, nPartition * nRoadChunk);
+		this.lastGraphConverter = graphConverter;
 		
 		// Calling GaliosToRepastGraph method for testing
-		graphConverter.GaliosToRepastGraph(resultGraph, nPartition);
+		graphConverter.GaliosToRepastGraph(resultGraph, nPartition * nRoadChunk);
 
 		// Testing retrieving the partitioned results
-		this.partitionedInRoads = graphConverter.getPartitionedInRoads();
+		this.partitionedInRoads = sortRoadChunks(graphConverter);
 		this.partitionedBwRoads = graphConverter.getPartitionedBwRoads();
+		this.partitionedBwRoadGroups = groupBwRoads(this.partitionedBwRoads);
 		
 		this.partitionDuration = GlobalVariables.SIMULATION_PARTITION_REFRESH_INTERVAL;
+		ContextCreator.logger.info("Full partitioning time: " + (System.nanoTime() - start_t) / 1000000 + " ms, edge cut: "
+				+ metisGraph.computeCut());
 	}
 
 	public void check_run() throws NumberFormatException, ExecutionException {
+		// Mean max/mean ratio of the road phase thread times since the last check, road chunks are
+		// counted in the time of the thread that took them, so uneven chunks do not trigger it
+		double imbalance = ContextCreator.tscheduler.getAndResetRoadImbalance();
+		if (GlobalVariables.LOG_PARTITION_IMBALANCE && this.imbalanceBeforeRepartition >= 0) {
+			ContextCreator.logger.info("Road phase imbalance before repartitioning: " + String.format("%.3f",
+					this.imbalanceBeforeRepartition) + ", after: " + String.format("%.3f", imbalance));
+			this.imbalanceBeforeRepartition = -1;
+		}
+		
 		if (this.partitionDuration <= GlobalVariables.SIMULATION_MAX_PARTITION_REFRESH_INTERVAL) {
-			/* Get the total number of vehicles in the network */
-			int TotVehNum = 0;
-			for (Road road : ContextCreator.getRoadContext().getAll()) {
-				TotVehNum += road.getVehicleNum();
+			boolean needRepartition;
+			if (GlobalVariables.PARTITION_IMBALANCE_THRESHOLD > 0) {
+				needRepartition = imbalance >= GlobalVariables.PARTITION_IMBALANCE_THRESHOLD;
+			} else {
+				/* Get the total number of vehicles in the network */
+				int TotVehNum = 0;
+				for (Road road : ContextCreator.getRoadContext().getAll()) {
+					TotVehNum += road.getVehicleNum();
+				}
+				needRepartition = TotVehNum >= GlobalVariables.THRESHOLD_VEHICLE_NUMBER;
 			}
 
-			if (TotVehNum >= GlobalVariables.THRESHOLD_VEHICLE_NUMBER) {
-				this.run();
+			if (needRepartition) {
+				this.repartition(imbalance);
 			} else {
 				this.partitionDuration += GlobalVariables.SIMULATION_PARTITION_REFRESH_INTERVAL;
 			}
+		} else {
+			this.repartition(imbalance);
+		}
+	}
+	
+	private void repartition(double imbalance) throws NumberFormatException, ExecutionException {
+		this.imbalanceBeforeRepartition = imbalance;
+		if (GlobalVariables.INCREMENTAL_PARTITION && this.lastGraphConverter != null) {
+			this.incremental_run();
 		} else {
 			this.run();
 		}
 	}
 
 	public void run() throws NumberFormatException, ExecutionException {
+		long start_t = System.nanoTime();
 		GaliosGraphConverter<?> graphConverter = new GaliosGraphConverter<Object>();
 		MetisGraph metisGraph = graphConverter.RepastToGaliosGraph(false);
-		System.gc(); // For gabage collection
 
-		IntGraph<MetisNode> resultGraph = partition(metisGraph, nPartition);
-		graphConverter.GaliosToRepastGraph(resultGraph, nPartition);
+		IntGraph<MetisNode> resultGraph = partition(metisGraph, nPartition * nRoadChunk);
+		this.lastGraphConverter = graphConverter;
+		graphConverter.GaliosToRepastGraph(resultGraph, nPartition * nRoadChunk);
 
 		// Retrieving the partitioned results
-		this.partitionedInRoads = graphConverter.getPartitionedInRoads();
+		this.partitionedInRoads = sortRoadChunks(graphConverter);
 		this.partitionedBwRoads = graphConverter.getPartitionedBwRoads();
+		this.partitionedBwRoadGroups = groupBwRoads(this.partitionedBwRoads);
 		this.partitionDuration = GlobalVariables.SIMULATION_PARTITION_REFRESH_INTERVAL;
+		ContextCreator.logger.info("Full partitioning time: " + (System.nanoTime() - start_t) / 1000000 + " ms, edge cut: "
+				+ metisGraph.computeCut());
+	}
+
+	/**
+	 * Repartition starting from the last partition. The weights of the kept graph
+	 * are refreshed in place and only the k-way refinement runs on the finest
+	 * level, so no coarsening and initial bisection are needed. The refiner and
+	 * the balancer stop moving nodes away from their partition once
+	 * PARTITION_MAX_MIGRATION of the nodes have changed partition, so most roads
+	 * stay on their current thread. If the balance cannot be restored within
+	 * that budget, the full partitioning runs instead.
+	 */
+	public void incremental_run() throws NumberFormatException, ExecutionException {
+		long start_t = System.nanoTime();
+		MetisGraph metisGraph = this.lastGraphConverter.updateGaliosGraphWeights();
+		if (metisGraph == null) { // The road network has changed, rebuild the graph
+			this.run();
+			return;
+		}
+		int nparts = nPartition * nRoadChunk;
+		@SuppressWarnings("unchecked")
+		GNode<MetisNode>[] nodes = new GNode[metisGraph.getGraph().size()];
+		metisGraph.getGraph().map(new SaveNodesToArray(nodes));
+		int[] prevPartition = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			prevPartition[i] = nodes[i].getData().getPartition();
+			nodes[i].getData().setNDegrees(0); // Left over from the last refinement, recomputed below
+		}
+		int prevCut = metisGraph.computeCut();
+
+		MetisGraph.nparts = nparts;
+		float[] totalPartitionWeights = new float[nparts];
+		Arrays.fill(totalPartitionWeights, 1 / (float) nparts);
+		// Cap the migration volume inside the refinement, so the moves kept are the ones the refiner chose
+		int maxMigration = (int) (GlobalVariables.PARTITION_MAX_MIGRATION * nodes.length);
+		KWayRefiner refiner = new KWayRefiner();
+		refiner.refineKWay(metisGraph, metisGraph, totalPartitionWeights, (float) 1.03, nparts,
+				new MigrationBudget(prevPartition, maxMigration));
+		if (!metisGraph.isBalanced(totalPartitionWeights, (float) 1.03)) {
+			ContextCreator.logger.info("Incremental partitioning cannot restore the balance within " + maxMigration
+					+ " migrated nodes, running the full partitioning");
+			this.run();
+			return;
+		}
+		int migrated = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i].getData().getPartition() != prevPartition[i]) {
+				migrated++;
+			}
+		}
+
+		this.lastGraphConverter.GaliosToRepastGraph(metisGraph.getGraph(), nparts);
+		this.partitionedInRoads = sortRoadChunks(this.lastGraphConverter);
+		this.partitionedBwRoads = this.lastGraphConverter.getPartitionedBwRoads();
+		this.partitionedBwRoadGroups = groupBwRoads(this.partitionedBwRoads);
+		this.partitionDuration = GlobalVariables.SIMULATION_PARTITION_REFRESH_INTERVAL;
+		ContextCreator.logger.info("Incremental partitioning time: " + (System.nanoTime() - start_t) / 1000000
+				+ " ms, edge cut: " + prevCut + " -> " + metisGraph.computeCut() + ", migrated nodes: " + migrated);
+	}
+
+	/**
+	 * When the roads are split into chunks, order the chunks by decreasing load so
+	 * the heavy ones are picked up first and the light ones fill the gaps at the end.
+	 */
+	private ArrayList<ArrayList<Road>> sortRoadChunks(GaliosGraphConverter<?> graphConverter) {
+		ArrayList<ArrayList<Road>> roadChunks = graphConverter.getPartitionedInRoads();
+		if (this.nRoadChunk == 1) return roadChunks;
+		ArrayList<Integer> chunkWeights = graphConverter.getPartitionWeights();
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < roadChunks.size(); i++) {
+			order.add(i);
+		}
+		order.sort((a, b) -> Integer.compare(chunkWeights.get(b), chunkWeights.get(a)));
+		ArrayList<ArrayList<Road>> sortedChunks = new ArrayList<ArrayList<Road>>();
+		for (int i : order) {
+			sortedChunks.add(roadChunks.get(i));
+		}
+		return sortedChunks;
+	}
+
+	/**
+	 * Color the boundary roads into groups that can be stepped in parallel.
+	 * 
+	 * A vehicle stepped on a road can only touch the roads around its downstream
+	 * junction, so two roads conflict if they share the downstream junction or if
+	 * the downstream junction of one is the upstream junction of the other. Each
+	 * road is placed in the group right after the last group holding an earlier
+	 * conflicting road, so running the groups one after another gives the same
+	 * result as stepping the roads in their serial order.
+	 */
+	private ArrayList<ArrayList<Road>> groupBwRoads(ArrayList<Road> bwRoads) {
+		ArrayList<ArrayList<Road>> groups = new ArrayList<ArrayList<Road>>();
+		HashMap<Integer, Integer> lastGroupByDownJunction = new HashMap<Integer, Integer>();
+		HashMap<Integer, Integer> lastGroupByUpJunction = new HashMap<Integer, Integer>();
+		for (Road r : bwRoads) {
+			int up = r.getUpStreamJunction();
+			int down = r.getDownStreamJunction();
+			int groupInd = Math.max(lastGroupByDownJunction.getOrDefault(down, -1),
+					Math.max(lastGroupByUpJunction.getOrDefault(down, -1),
+							lastGroupByDownJunction.getOrDefault(up, -1))) + 1;
+			if (groupInd == groups.size()) {
+				groups.add(new ArrayList<Road>());
+			}
+			groups.get(groupInd).add(r);
+			lastGroupByDownJunction.put(down, Math.max(lastGroupByDownJunction.getOrDefault(down, -1), groupInd));
+			lastGroupByUpJunction.put(up, Math.max(lastGroupByUpJunction.getOrDefault(up, -1), groupInd));
+		}
+		ContextCreator.logger.info("Boundary roads: " + bwRoads.size() + ", independent groups: " + groups.size());
+		return groups;
 	}
 
 	/**
@@ -241,7 +394,19 @@ public class MetisPartition {
 		ContextCreator.logger.debug("KMetis okay");
 	}
 	
+	/**
+	 * Background load (requests, chargers and signals) counted for road partition i.
+	 * With road chunks, the N * k chunks are cut by Metis independently of the
+	 * N zone, charger and signal partitions, and any idle worker can take any
+	 * chunk, so the load cannot be attributed to a chunk and each chunk gets
+	 * the mean sum / (N * k).
+	 */
 	public int getBackgroundLoad(int i) {
-		return this.backgroundLoads.get(i);
+		if (this.nRoadChunk == 1) return this.backgroundLoads.get(i);
+		int sum = 0;
+		for (int load : this.backgroundLoads) {
+			sum += load;
+		}
+		return sum / (this.nPartition * this.nRoadChunk);
 	}
 }
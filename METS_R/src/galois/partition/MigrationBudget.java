@@ -0,0 +1,39 @@
+package galois.partition;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limit on the number of nodes that may leave their previous partition during
+ * an incremental refinement. Moving a node away from its previous partition
+ * takes one unit of the budget and moving it back gives the unit back, so the
+ * refiner and the balancer stop migrating nodes once the budget is spent but
+ * can still move the migrated nodes further or back.
+ */
+class MigrationBudget {
+	private int[] prevPartition; // Partition of each node ID before the refinement
+	private AtomicInteger left;
+
+	public MigrationBudget(int[] prevPartition, int maxMigration) {
+		this.prevPartition = prevPartition;
+		this.left = new AtomicInteger(maxMigration);
+	}
+
+	/**
+	 * Take the budget for moving the node to the given partition.
+	 *
+	 * @return boolean false if the move would exceed the budget
+	 */
+	public boolean tryMove(MetisNode nodeData, int to) {
+		int prev = this.prevPartition[nodeData.getNodeId()];
+		int from = nodeData.getPartition();
+		if (from == prev && to != prev) {
+			if (this.left.decrementAndGet() < 0) {
+				this.left.incrementAndGet();
+				return false;
+			}
+		} else if (from != prev && to == prev) {
+			this.left.incrementAndGet();
+		}
+		return true;
+	}
+}
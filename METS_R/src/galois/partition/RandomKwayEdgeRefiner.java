@@ -50,6 +50,7 @@ public class RandomKwayEdgeRefiner {
 	private int[] minwgts;
 	private int[] maxwgts;
 	private int[] itpwgts;
+	private MigrationBudget budget; // Null if the nodes can move freely
 
 	public RandomKwayEdgeRefiner(float[] tpwgts, int nparts, float ubfactor, int npasses, int ffactor) {
 		this.tpwgts = tpwgts;
@@ -62,6 +63,10 @@ public class RandomKwayEdgeRefiner {
 		itpwgts = new int[nparts];
 	}
 
+	void setMigrationBudget(MigrationBudget budget) {
+		this.budget = budget;
+	}
+
 	public void refine(final MetisGraph metisGraph) throws ExecutionException {
 
 		int tvwgt = 0;
@@ -148,6 +153,8 @@ public class RandomKwayEdgeRefiner {
 					}
 				}, MethodFlag.CHECK_CONFLICT);
 			}
+			if (budget != null && !budget.tryMove(nodeData, to))
+				return;
 			metisGraph.incMinCut(-(nodeData.partEd[k] - nodeData.getIdegree()));
 			nodeData.setPartition(to);
 			metisGraph.incPartWeight(to, vwgt);
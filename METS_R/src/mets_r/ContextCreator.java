@@ -34,6 +34,7 @@ import mets_r.data.input.TravelDemand;
 import mets_r.data.output.*;
 import mets_r.facility.*;
 import mets_r.mobility.*;
+import mets_r.routing.CandidateRouteStore;
 
 /**
  * This is the class with the main function which includes:
@@ -83,9 +84,9 @@ public class ContextCreator implements ContextBuilder<Object> {
 	public static final DataCollector dataCollector = new DataCollector();
 	
 	// Candidate path sets for eco-routing, 
-	// id: origin-destination pair, value: npaths
-	public static HashMap<String, List<List<Integer>>> route_UCB = new HashMap<String, List<List<Integer>>>();
-	public static HashMap<String, List<List<Integer>>> route_UCB_bus = new HashMap<String, List<List<Integer>>>();
+	// keyed by the origin-destination pair, holds npaths for each pair
+	public static CandidateRouteStore route_UCB = new CandidateRouteStore();
+	public static CandidateRouteStore route_UCB_bus = new CandidateRouteStore();
 	
 	// Route results received from RemoteDataClient
 	public static HashMap<String, Integer> routeResult_received = new HashMap<String, Integer>();
@@ -204,6 +205,7 @@ public class ContextCreator implements ContextBuilder<Object> {
 		schedulePrivateTripLoader();
 		scheduleRoadNetworkRefresh();
 		scheduleFreeFlowSpeedRefresh();
+		scheduleHubTravelTimeRefresh();
 		scheduleNetworkEventHandling(); // For temporarily alter the link speed
 		
 		// Set up data collection
@@ -265,6 +267,16 @@ public class ContextCreator implements ContextBuilder<Object> {
 		scheduledActions.add(schedule.schedule(speedProfileParams, cityContext, "refreshTravelTime"));
 	}
 
+	// Schedule the event of computing the travel times between the hubs and the zones
+	// for the hour, after the other updates and before the zone step
+	public static void scheduleHubTravelTimeRefresh() {
+		if (GlobalVariables.NUM_OF_BUS <= 0) return; // Only used by the zones with buses
+		ISchedule schedule = RunEnvironment.getInstance().getCurrentSchedule();
+		ScheduleParameters hubTravelTimeParams = ScheduleParameters.createRepeating(initTick,
+				GlobalVariables.SIMULATION_SPEED_REFRESH_INTERVAL, 1.5);
+		scheduledActions.add(schedule.schedule(hubTravelTimeParams, getZoneContext(), "refreshHubTravelTimes"));
+	}
+
 	// Schedule the event for link management, transit scheduling, or incidents, e.g., road closure
 	public static void scheduleNetworkEventHandling() {
 		ISchedule schedule = RunEnvironment.getInstance().getCurrentSchedule();
@@ -470,8 +482,8 @@ public class ContextCreator implements ContextBuilder<Object> {
 		travel_demand = new TravelDemand();
 		bus_schedule = new BusSchedule();
 		partitioner = new MetisPartition(GlobalVariables.N_Partition); 
-		route_UCB = new HashMap<String, List<List<Integer>>>();
-		route_UCB_bus = new HashMap<String, List<List<Integer>>>();
+		route_UCB = new CandidateRouteStore();
+		route_UCB_bus = new CandidateRouteStore();
 		isRouteUCBPopulated = false;
 		isRouteUCBBusPopulated = false;
 		receivedNewBusSchedule = false;
@@ -104,6 +104,7 @@ public class GlobalVariables {
 		BT_STD_FILE = loadConfig("BT_STD_FILE");
 		EV_DEMAND_FILE = loadConfig("EV_DEMAND_FILE");
 		GV_DEMAND_FILE = loadConfig("GV_DEMAND_FILE");
+		PRIVATE_DEMAND_PREFETCH = Boolean.valueOf(loadConfig("PRIVATE_DEMAND_PREFETCH")); // Read the private trips of the next hour in the background
 		RH_DEMAND_FILE = loadConfig("RH_DEMAND_FILE");
 		RH_WAITING_TIME = loadConfig("RH_WAITING_TIME");
 		RH_SHARE_PERCENTAGE = loadConfig("RH_SHARE_PERCENTAGE");
@@ -149,6 +150,14 @@ public class GlobalVariables {
 		// Load the number of partitions from the config file
 		N_Partition = Integer.valueOf(loadConfig("N_PARTITION"));
 		N_THREADS = Integer.valueOf(loadConfig("N_THREADS"));
+		// Keep one long-lived worker per partition instead of submitting tasks every tick
+		PERSISTENT_WORKERS = Boolean.valueOf(loadConfig("PERSISTENT_WORKERS"));
+		// Step the roads between partitions in parallel groups that share no junction
+		PARALLEL_BOUNDARY_ROADS = Boolean.valueOf(loadConfig("PARALLEL_BOUNDARY_ROADS"));
+		// Write the per-tick partition times of each phase and their percentiles to csv
+		PHASE_TIME_LOG = Boolean.valueOf(loadConfig("PHASE_TIME_LOG"));
+		// Split each road partition into chunks that idle workers can pick up, 1 to disable
+		ROAD_CHUNKS_PER_PARTITION = Integer.valueOf(loadConfig("ROAD_CHUNKS_PER_PARTITION"));
 		SIMULATION_NETWORK_REFRESH_INTERVAL = Integer
 				.valueOf(loadConfig("SIMULATION_NETWORK_REFRESH_INTERVAL"));
 	    SIMULATION_PARTITION_REFRESH_INTERVAL = Integer
@@ -158,6 +167,14 @@ public class GlobalVariables {
 				.valueOf(loadConfig("SIMULATION_MAX_PARTITION_REFRESH_INTERVAL"));
 		// Threshold amount of vehicles that requires more frequent network partitioning
 		THRESHOLD_VEHICLE_NUMBER = Integer.valueOf(loadConfig("THRESHOLD_VEHICLE_NUMBER"));
+		// Refine the last partition instead of partitioning from scratch
+		INCREMENTAL_PARTITION = Boolean.valueOf(loadConfig("INCREMENTAL_PARTITION"));
+		// Maximum share of the graph nodes that can change partition in an incremental repartitioning
+		PARTITION_MAX_MIGRATION = Double.valueOf(loadConfig("PARTITION_MAX_MIGRATION"));
+		// Repartition when the mean road phase imbalance (max/mean partition time) reaches this value, 0 to use THRESHOLD_VEHICLE_NUMBER
+		PARTITION_IMBALANCE_THRESHOLD = Double.valueOf(loadConfig("PARTITION_IMBALANCE_THRESHOLD"));
+		// Log the road phase imbalance before and after each repartitioning
+		LOG_PARTITION_IMBALANCE = Boolean.valueOf(loadConfig("LOG_PARTITION_IMBALANCE"));
 		
 		/* Data collection */
 		ENABLE_DATA_COLLECTION = Boolean.valueOf(loadConfig("ENABLE_DATA_COLLECTION"));
@@ -218,6 +235,13 @@ public class GlobalVariables {
 		K_VALUE = Integer.valueOf(loadConfig("K_VALUE"));
 		THETA_LOGIT = Double.valueOf(loadConfig("THETA_LOGIT"));
 		
+		// Single shortest path algorithm, DIJKSTRA, ASTAR or CH (customizable contraction hierarchies)
+		SHORTEST_PATH_ALGORITHM = loadConfig("SHORTEST_PATH_ALGORITHM");
+		// Maximum number of shortest paths kept between two network weight updates, 0 to disable the cache
+		ROUTE_CACHE_SIZE = Integer.valueOf(loadConfig("ROUTE_CACHE_SIZE"));
+		// Relative change of the travel time of a road below which the routing weight is not updated, 0 to update all changes
+		ROUTING_WEIGHT_EPSILON = Double.valueOf(loadConfig("ROUTING_WEIGHT_EPSILON"));
+		
 		// For global variables of the adaptive network weighting
 		PART_ALPHA = Integer.valueOf(loadConfig("PART_ALPHA"));
 		PART_BETA = Integer.valueOf(loadConfig("PART_BETA"));
@@ -353,6 +377,7 @@ public class GlobalVariables {
 	// Travel demand
 	public static String EV_DEMAND_FILE = loadConfig("EV_DEMAND_FILE");
 	public static String GV_DEMAND_FILE = loadConfig("GV_DEMAND_FILE");
+	public static boolean PRIVATE_DEMAND_PREFETCH = Boolean.valueOf(loadConfig("PRIVATE_DEMAND_PREFETCH")); // Read the private trips of the next hour in the background
 	public static String RH_DEMAND_FILE = loadConfig("RH_DEMAND_FILE");
 	public static String RH_WAITING_TIME = loadConfig("RH_WAITING_TIME");
 	public static String RH_SHARE_PERCENTAGE = loadConfig("RH_SHARE_PERCENTAGE");
@@ -399,6 +424,14 @@ public class GlobalVariables {
 	// Load the number of partitions from the config file
 	public static int N_Partition = Integer.valueOf(loadConfig("N_PARTITION"));
 	public static int N_THREADS = Integer.valueOf(loadConfig("N_THREADS"));
+	// Keep one long-lived worker per partition instead of submitting tasks every tick
+	public static boolean PERSISTENT_WORKERS = Boolean.valueOf(loadConfig("PERSISTENT_WORKERS"));
+	// Step the roads between partitions in parallel groups that share no junction
+	public static boolean PARALLEL_BOUNDARY_ROADS = Boolean.valueOf(loadConfig("PARALLEL_BOUNDARY_ROADS"));
+	// Write the per-tick partition times of each phase and their percentiles to csv
+	public static boolean PHASE_TIME_LOG = Boolean.valueOf(loadConfig("PHASE_TIME_LOG"));
+	// Split each road partition into chunks that idle workers can pick up, 1 to disable
+	public static int ROAD_CHUNKS_PER_PARTITION = Integer.valueOf(loadConfig("ROAD_CHUNKS_PER_PARTITION"));
 	public static int SIMULATION_NETWORK_REFRESH_INTERVAL = Integer
 			.valueOf(loadConfig("SIMULATION_NETWORK_REFRESH_INTERVAL"));
 	public static int SIMULATION_PARTITION_REFRESH_INTERVAL = Integer
@@ -408,6 +441,14 @@ public class GlobalVariables {
 			.valueOf(loadConfig("SIMULATION_MAX_PARTITION_REFRESH_INTERVAL"));
 	// Threshold amount of vehicles that requires more frequent network partitioning
 	public static int THRESHOLD_VEHICLE_NUMBER = Integer.valueOf(loadConfig("THRESHOLD_VEHICLE_NUMBER"));
+	// Refine the last partition instead of partitioning from scratch
+	public static boolean INCREMENTAL_PARTITION = Boolean.valueOf(loadConfig("INCREMENTAL_PARTITION"));
+	// Maximum share of the graph nodes that can change partition in an incremental repartitioning
+	public static double PARTITION_MAX_MIGRATION = Double.valueOf(loadConfig("PARTITION_MAX_MIGRATION"));
+	// Repartition when the mean road phase imbalance (max/mean partition time) reaches this value, 0 to use THRESHOLD_VEHICLE_NUMBER
+	public static double PARTITION_IMBALANCE_THRESHOLD = Double.valueOf(loadConfig("PARTITION_IMBALANCE_THRESHOLD"));
+	// Log the road phase imbalance before and after each repartitioning
+	public static boolean LOG_PARTITION_IMBALANCE = Boolean.valueOf(loadConfig("LOG_PARTITION_IMBALANCE"));
 	
 	/* Data collection */
 	public static boolean ENABLE_DATA_COLLECTION = Boolean.valueOf(loadConfig("ENABLE_DATA_COLLECTION"));
@@ -468,6 +509,13 @@ public class GlobalVariables {
 	public static int K_VALUE = Integer.valueOf(loadConfig("K_VALUE"));
 	public static double THETA_LOGIT = Double.valueOf(loadConfig("THETA_LOGIT"));
 	
+	// Single shortest path algorithm, DIJKSTRA, ASTAR or CH (customizable contraction hierarchies)
+	public static String SHORTEST_PATH_ALGORITHM = loadConfig("SHORTEST_PATH_ALGORITHM");
+	// Maximum number of shortest paths kept between two network weight updates, 0 to disable the cache
+	public static int ROUTE_CACHE_SIZE = Integer.valueOf(loadConfig("ROUTE_CACHE_SIZE"));
+	// Relative change of the travel time of a road below which the routing weight is not updated, 0 to update all changes
+	public static double ROUTING_WEIGHT_EPSILON = Double.valueOf(loadConfig("ROUTING_WEIGHT_EPSILON"));
+	
 	// For global variables of the adaptive network weighting
 	public static int PART_ALPHA = Integer.valueOf(loadConfig("PART_ALPHA"));
 	public static int PART_BETA = Integer.valueOf(loadConfig("PART_BETA"));
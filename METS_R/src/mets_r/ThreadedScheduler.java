@@ -1,8 +1,11 @@
 package mets_r;
 
+import java.io.IOException;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import mets_r.ContextCreator;
+import mets_r.data.output.TimeHistogram;
 import mets_r.facility.ChargingStation;
 import mets_r.facility.Road;
 import mets_r.facility.Signal;
@@ -11,51 +14,106 @@ import mets_r.facility.Zone;
 import java.util.*;
 
 public class ThreadedScheduler {
+	/* Phases handled by the persistent workers */
+	public final static int ROAD_PHASE = 0;
+	public final static int ZONE_PHASE = 1;
+	public final static int RIDEHAILING_PHASE = 2;
+	public final static int CHARGING_STATION_PHASE = 3;
+	public final static int SIGNAL_PHASE = 4;
+	public final static int BOUNDARY_ROAD_PHASE = 5;
+	public final static String[] PHASE_NAMES = { "road", "zone", "ridehailing", "chargingStation", "signal",
+			"boundaryRoad" };
+	
 	private ExecutorService executor;
 	private int N_Partition;
 	private int N_threads;
-
-	private int min_para_time;
-	private int max_para_time;
-	private int avg_para_time;
-	private int seq_time;
+	
+	// For the persistent worker mode, each worker stays bound to one partition
+	// and waits on the phaser for the next phase to run
+	private boolean persistentWorkers;
+	private Phaser phaser;
+	private volatile int currentPhase;
+	private volatile boolean isShutdown;
+	private long[] workerTime; // Time (ns) spent by each worker in the current phase
+	private ArrayList<Road> currentBwRoadGroup; // Group of independent boundary roads to be shared by the workers
+	private AtomicInteger nextRoadChunk; // Next road chunk to be picked up by an idle worker
+
+	// Accumulated time (ns) between two reports
+	private long min_para_time;
+	private long max_para_time;
+	private long avg_para_time;
+	private long seq_time;
+	
+	// Per-phase distribution of the partition times and of the imbalance (max/mean) between two reports
+	private TimeHistogram[] phaseHistograms;
+	private double[] phaseImbalanceSum;
+	private double[] phaseImbalanceMax;
+	private int[] phaseTickCount;
+	
+	// Imbalance of the road phase since the last repartitioning check
+	private double roadImbalanceSum;
+	private int roadImbalanceCount;
 
 	public ThreadedScheduler(int N_threads) {
 		this.N_threads = N_threads;
-		this.executor = Executors.newFixedThreadPool(this.N_threads);
 		this.N_Partition = GlobalVariables.N_Partition;
+		this.persistentWorkers = GlobalVariables.PERSISTENT_WORKERS;
+		this.nextRoadChunk = new AtomicInteger(0);
+		if (this.persistentWorkers) {
+			this.startWorkers();
+		} else {
+			this.executor = Executors.newFixedThreadPool(this.N_threads);
+		}
 
 		this.min_para_time = 0;
 		this.max_para_time = 0;
 		this.avg_para_time = 0;
 		this.seq_time = 0;
+		
+		this.phaseHistograms = new TimeHistogram[PHASE_NAMES.length];
+		for (int i = 0; i < PHASE_NAMES.length; i++) {
+			this.phaseHistograms[i] = new TimeHistogram();
+		}
+		this.phaseImbalanceSum = new double[PHASE_NAMES.length];
+		this.phaseImbalanceMax = new double[PHASE_NAMES.length];
+		this.phaseTickCount = new int[PHASE_NAMES.length];
 	}
 
 	public void paraRoadStep() {
+		if (this.persistentWorkers) {
+			this.nextRoadChunk.set(0);
+			this.runPhase(ROAD_PHASE);
+			stepBwRoads(); // Process the roads between different partitions
+			return;
+		}
 		// Load the partitions, each partition is a subgraph of the road network
 		ArrayList<ArrayList<Road>> partitionedInRoads = ContextCreator.partitioner.getPartitionedInRoads();
-		// Creates tasks to run road.step() function in each partition 
-		List<PartitionRoadThread> tasks = new ArrayList<PartitionRoadThread>();
-		for (int i = 0; i < this.N_Partition; i++) {
-			tasks.add(new PartitionRoadThread(partitionedInRoads.get(i), i));
-		}
-
-		try {
-			List<Future<Integer>> futures = executor.invokeAll(tasks);
-			stepBwRoads(); // Process the roads between different partitions
-			ArrayList<Integer> time_stat = new ArrayList<Integer>();
-			for (int i = 0; i < N_Partition; i++)
-				time_stat.add(futures.get(i).get());
-			ArrayList<Integer> time_result = minMaxAvg(time_stat);
-			min_para_time = min_para_time + time_result.get(0);
-			max_para_time = max_para_time + time_result.get(1);
-			avg_para_time = avg_para_time + time_result.get(2);
-		} catch (Exception ex) {
-			ex.printStackTrace();
+		if (partitionedInRoads.size() > this.N_Partition) {
+			// When the partitions are split into chunks, each task keeps taking the next
+			// unprocessed chunk like the persistent workers, so the recorded times are
+			// the busy times of the threads and not the uneven times of the chunks
+			this.nextRoadChunk.set(0);
+			List<PartitionRoadChunkThread> tasks = new ArrayList<PartitionRoadChunkThread>();
+			for (int i = 0; i < this.N_Partition; i++) {
+				tasks.add(new PartitionRoadChunkThread(partitionedInRoads, this.nextRoadChunk, i));
+			}
+			this.invokePhase(ROAD_PHASE, tasks);
+		} else {
+			// Creates tasks to run road.step() function in each partition 
+			List<PartitionRoadThread> tasks = new ArrayList<PartitionRoadThread>();
+			for (int i = 0; i < partitionedInRoads.size(); i++) {
+				tasks.add(new PartitionRoadThread(partitionedInRoads.get(i), i));
+			}
+			this.invokePhase(ROAD_PHASE, tasks);
 		}
+		stepBwRoads(); // Process the roads between different partitions
 	}
 
 	public void paraZoneStep() {
+		if (this.persistentWorkers) {
+			this.runPhase(ZONE_PHASE);
+			return;
+		}
 		// Load the partitions, each partition is a subset of Zones
 		ArrayList<ArrayList<Zone>> partitionedZones = ContextCreator.partitioner.getpartitionedZones();
 		// Creates tasks to run zone.step() function in each partition
@@ -63,21 +121,14 @@ public class ThreadedScheduler {
 		for (int i = 0; i < this.N_Partition; i++) {
 			tasks.add(new PartitionZoneThread(partitionedZones.get(i), i));
 		}
-		try {
-			List<Future<Integer>> futures = executor.invokeAll(tasks);
-			ArrayList<Integer> time_stat = new ArrayList<Integer>();
-			for (int i = 0; i < N_Partition; i++)
-				time_stat.add(futures.get(i).get());
-			ArrayList<Integer> time_result = minMaxAvg(time_stat);
-			min_para_time = min_para_time + time_result.get(0);
-			max_para_time = max_para_time + time_result.get(1);
-			avg_para_time = avg_para_time + time_result.get(2);
-		} catch (Exception ex) {
-			ex.printStackTrace();
-		}
+		this.invokePhase(ZONE_PHASE, tasks);
 	}
 	
 	public void paraZoneRidehailingStep() {
+		if (this.persistentWorkers) {
+			this.runPhase(RIDEHAILING_PHASE);
+			return;
+		}
 		// Load the partitions, each partition is a subset of Zones
 		ArrayList<ArrayList<Zone>> partitionedZones = ContextCreator.partitioner.getpartitionedZones();
 		// Creates tasks to run zone.step() function in each partition
@@ -85,21 +136,14 @@ public class ThreadedScheduler {
 		for (int i = 0; i < this.N_Partition; i++) {
 			tasks.add(new PartitionZoneRidehailingThread(partitionedZones.get(i), i));
 		}
-		try {
-			List<Future<Integer>> futures = executor.invokeAll(tasks);
-			ArrayList<Integer> time_stat = new ArrayList<Integer>();
-			for (int i = 0; i < N_Partition; i++)
-				time_stat.add(futures.get(i).get());
-			ArrayList<Integer> time_result = minMaxAvg(time_stat);
-			min_para_time = min_para_time + time_result.get(0);
-			max_para_time = max_para_time + time_result.get(1);
-			avg_para_time = avg_para_time + time_result.get(2);
-		} catch (Exception ex) {
-			ex.printStackTrace();
-		}
+		this.invokePhase(RIDEHAILING_PHASE, tasks);
 	}
 
 	public void paraChargingStationStep() {
+		if (this.persistentWorkers) {
+			this.runPhase(CHARGING_STATION_PHASE);
+			return;
+		}
 		// Load the partitions, each partition is a subset of Charging stations
 		ArrayList<ArrayList<ChargingStation>> patitionChargingStations = ContextCreator.partitioner
 				.getpartitionedChargingStations();
@@ -108,22 +152,14 @@ public class ThreadedScheduler {
 		for (int i = 0; i < this.N_Partition; i++) {
 			tasks.add(new PartitionChargingStationThread(patitionChargingStations.get(i), i));
 		}
-
-		try {
-			List<Future<Integer>> futures = executor.invokeAll(tasks);
-			ArrayList<Integer> time_stat = new ArrayList<Integer>();
-			for (int i = 0; i < N_Partition; i++)
-				time_stat.add(futures.get(i).get());
-			ArrayList<Integer> time_result = minMaxAvg(time_stat);
-			min_para_time = min_para_time + time_result.get(0);
-			max_para_time = max_para_time + time_result.get(1);
-			avg_para_time = avg_para_time + time_result.get(2);
-		} catch (Exception ex) {
-			ex.printStackTrace();
-		}
+		this.invokePhase(CHARGING_STATION_PHASE, tasks);
 	}
 	
 	public void paraSignalStep() {
+		if (this.persistentWorkers) {
+			this.runPhase(SIGNAL_PHASE);
+			return;
+		}
 		// Load the partitions, each partition is a subset of Charging stations
 		ArrayList<ArrayList<Signal>> patitionSignals = ContextCreator.partitioner
 				.getpartitionedSignals();
@@ -132,65 +168,289 @@ public class ThreadedScheduler {
 		for (int i = 0; i < this.N_Partition; i++) {
 			tasks.add(new PartitionSignalThread(patitionSignals.get(i), i));
 		}
+		this.invokePhase(SIGNAL_PHASE, tasks);
+	}
+
+	public void stepBwRoads() {
+		long start_t = System.nanoTime();
+		if (GlobalVariables.PARALLEL_BOUNDARY_ROADS) {
+			// Roads in the same group do not share any junction, so they can be stepped
+			// in parallel while the groups themselves follow the serial order
+			for (ArrayList<Road> group : ContextCreator.partitioner.getPartitionedBwRoadGroups()) {
+				if (group.size() < 2 * this.N_Partition) { // Too small to be worth the hand-over
+					for (Road r : group) {
+						r.step();
+					}
+				} else if (this.persistentWorkers) {
+					this.currentBwRoadGroup = group;
+					this.runPhase(BOUNDARY_ROAD_PHASE);
+				} else {
+					List<PartitionRoadThread> tasks = new ArrayList<PartitionRoadThread>();
+					for (int i = 0; i < this.N_Partition; i++) {
+						ArrayList<Road> roadSet = new ArrayList<Road>();
+						for (int j = i; j < group.size(); j += this.N_Partition) {
+							roadSet.add(group.get(j));
+						}
+						tasks.add(new PartitionRoadThread(roadSet, i));
+					}
+					try {
+						executor.invokeAll(tasks);
+					} catch (Exception ex) {
+						ex.printStackTrace();
+					}
+				}
+			}
+		} else {
+			for (Road r : ContextCreator.partitioner.getPartitionedBwRoads()) {
+				r.step();
+			}
+		}
+		long elapsed = System.nanoTime() - start_t;
+		seq_time = seq_time + elapsed;
+		this.phaseHistograms[BOUNDARY_ROAD_PHASE].record(elapsed);
+	}
+
+	// Launch one long-lived worker per partition, the scheduler thread is the extra party of the phaser
+	private void startWorkers() {
+		this.phaser = new Phaser(this.N_Partition + 1);
+		this.workerTime = new long[this.N_Partition];
+		this.currentPhase = -1;
+		this.isShutdown = false;
+		for (int i = 0; i < this.N_Partition; i++) {
+			Thread worker = new Thread(new PartitionWorker(this, i), "PartitionWorker-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+	
+	// Release the workers to run the given phase and wait until all of them finish it
+	private void runPhase(int phase) {
+		this.currentPhase = phase;
+		this.phaser.arriveAndAwaitAdvance(); // Start barrier
+		this.phaser.arriveAndAwaitAdvance(); // End barrier
+		if (phase != BOUNDARY_ROAD_PHASE) {
+			this.recordPhaseTime(phase, this.workerTime);
+		}
+	}
+	
+	// Submit one task per partition (or per worker) to the executor and record how long each of them took
+	private void invokePhase(int phase, List<? extends Callable<Long>> tasks) {
 		try {
-			List<Future<Integer>> futures = executor.invokeAll(tasks);
-			ArrayList<Integer> time_stat = new ArrayList<Integer>();
-			for (int i = 0; i < N_Partition; i++)
-				time_stat.add(futures.get(i).get());
-			ArrayList<Integer> time_result = minMaxAvg(time_stat);
-			min_para_time = min_para_time + time_result.get(0);
-			max_para_time = max_para_time + time_result.get(1);
-			avg_para_time = avg_para_time + time_result.get(2);
+			List<Future<Long>> futures = executor.invokeAll(tasks);
+			long[] times = new long[futures.size()];
+			for (int i = 0; i < futures.size(); i++) {
+				times[i] = futures.get(i).get();
+			}
+			this.recordPhaseTime(phase, times);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
 	}
-
-	public void stepBwRoads() {
-		for (Road r : ContextCreator.partitioner.getPartitionedBwRoads()) {
-			r.step();
+	
+	// Update the statistics with the partition times (ns) of one phase in the current tick
+	private void recordPhaseTime(int phase, long[] times) {
+		long min = times[0];
+		long max = times[0];
+		long sum = 0;
+		int slowest = 0;
+		for (int i = 0; i < times.length; i++) {
+			min = Math.min(times[i], min);
+			if (times[i] > max) {
+				max = times[i];
+				slowest = i;
+			}
+			sum += times[i];
+			this.phaseHistograms[phase].record(times[i]);
+		}
+		double mean = sum / (double) times.length;
+		double imbalance = mean > 0 ? max / mean : 1.0;
+		min_para_time = min_para_time + min;
+		max_para_time = max_para_time + max;
+		avg_para_time = avg_para_time + sum / times.length;
+		this.phaseImbalanceSum[phase] += imbalance;
+		this.phaseImbalanceMax[phase] = Math.max(this.phaseImbalanceMax[phase], imbalance);
+		this.phaseTickCount[phase]++;
+		if (phase == ROAD_PHASE && times.length == this.N_Partition) {
+			// The repartitioning trigger is based on the busy times of the threads only
+			this.roadImbalanceSum += imbalance;
+			this.roadImbalanceCount++;
+		}
+		
+		if (GlobalVariables.PHASE_TIME_LOG) {
+			StringBuilder partitionTimes = new StringBuilder();
+			for (int i = 0; i < times.length; i++) {
+				if (i > 0) partitionTimes.append(';');
+				partitionTimes.append(times[i]);
+			}
+			try {
+				ContextCreator.agg_logger.phase_logger.write(ContextCreator.getCurrentTick() + "," + PHASE_NAMES[phase]
+						+ "," + slowest + "," + min + "," + max + "," + String.format("%.1f", mean) + ","
+						+ String.format("%.4f", imbalance) + "," + partitionTimes);
+				ContextCreator.agg_logger.phase_logger.newLine();
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
 		}
 	}
-
-	public void shutdownScheduler() {
-		executor.shutdown();
+	
+	// Called by the workers, run the current phase for the partition bound to the worker
+	void stepPartition(int partitionID) {
+		long start_t = System.nanoTime();
+		try {
+			switch (this.currentPhase) {
+			case ROAD_PHASE:
+				ArrayList<ArrayList<Road>> roadChunks = ContextCreator.partitioner.getPartitionedInRoads();
+				if (roadChunks.size() > this.N_Partition) {
+					// Keep taking the next unprocessed chunk until all of them are done
+					int chunk = this.nextRoadChunk.getAndIncrement();
+					while (chunk < roadChunks.size()) {
+						for (Road r : roadChunks.get(chunk)) {
+							r.step();
+						}
+						chunk = this.nextRoadChunk.getAndIncrement();
+					}
+				} else {
+					for (Road r : roadChunks.get(partitionID)) {
+						r.step();
+					}
+				}
+				break;
+			case ZONE_PHASE:
+				for (Zone z : ContextCreator.partitioner.getpartitionedZones().get(partitionID)) {
+					z.step();
+				}
+				break;
+			case RIDEHAILING_PHASE:
+				for (Zone z : ContextCreator.partitioner.getpartitionedZones().get(partitionID)) {
+					z.ridehailingStep();
+				}
+				break;
+			case CHARGING_STATION_PHASE:
+				for (ChargingStation cs : ContextCreator.partitioner.getpartitionedChargingStations()
+						.get(partitionID)) {
+					cs.step();
+				}
+				break;
+			case SIGNAL_PHASE:
+				for (Signal s : ContextCreator.partitioner.getpartitionedSignals().get(partitionID)) {
+					s.step2();
+				}
+				break;
+			case BOUNDARY_ROAD_PHASE:
+				for (int i = partitionID; i < this.currentBwRoadGroup.size(); i += this.N_Partition) {
+					this.currentBwRoadGroup.get(i).step();
+				}
+				break;
+			default:
+				break;
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+		this.workerTime[partitionID] = System.nanoTime() - start_t;
+	}
+	
+	Phaser getPhaser() {
+		return this.phaser;
+	}
+	
+	boolean isShutdown() {
+		return this.isShutdown;
 	}
 
-	public ArrayList<Integer> minMaxAvg(ArrayList<Integer> values) {
-		int min = values.get(0);
-		int max = values.get(0);
-		int sum = 0;
-
-		for (int value : values) {
-			min = Math.min(value, min);
-			max = Math.max(value, max);
-			sum += value;
+	public void shutdownScheduler() {
+		if (this.persistentWorkers) {
+			this.isShutdown = true;
+			this.phaser.arriveAndDeregister(); // Let the waiting workers pass the start barrier and quit
+		} else {
+			executor.shutdown();
 		}
+	}
 
-		int avg = sum / values.size();
-
-		ArrayList<Integer> results = new ArrayList<Integer>();
-		results.add(min);
-		results.add(max);
-		results.add(avg);
-
-		return results;
+	// Mean imbalance (max/mean busy time of the threads) of the road phase since the last call, 1 if not measured
+	public double getAndResetRoadImbalance() {
+		double imbalance = this.roadImbalanceCount > 0 ? this.roadImbalanceSum / this.roadImbalanceCount : 1.0;
+		this.roadImbalanceSum = 0;
+		this.roadImbalanceCount = 0;
+		return imbalance;
 	}
 
 	public void reportTime() {
 		ContextCreator.logger.info("Tick:\t" + ContextCreator.getCurrentTick()
-				+ "\tMin para time:\t" + min_para_time + "\tMax para time\t" + max_para_time + "\tAvg para time:\t"
-				+ avg_para_time + "\tSequential time:\t" + seq_time);
+				+ "\tMin para time:\t" + toMillis(min_para_time) + "\tMax para time\t" + toMillis(max_para_time)
+				+ "\tAvg para time:\t" + toMillis(avg_para_time) + "\tSequential time:\t" + toMillis(seq_time));
+		for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+			TimeHistogram histogram = this.phaseHistograms[phase];
+			if (histogram.getTotalCount() == 0) continue;
+			double meanImbalance = this.phaseTickCount[phase] > 0
+					? this.phaseImbalanceSum[phase] / this.phaseTickCount[phase]
+					: 1.0;
+			ContextCreator.logger.info("Phase:\t" + PHASE_NAMES[phase] + "\tp50:\t"
+					+ toMillis(histogram.getValueAtPercentile(50)) + "\tp95:\t"
+					+ toMillis(histogram.getValueAtPercentile(95)) + "\tp99:\t"
+					+ toMillis(histogram.getValueAtPercentile(99)) + "\tmax:\t" + toMillis(histogram.getMaxValue())
+					+ "\tImbalance mean:\t" + String.format("%.3f", meanImbalance) + "\tImbalance max:\t"
+					+ String.format("%.3f", this.phaseImbalanceMax[phase]));
+			if (GlobalVariables.PHASE_TIME_LOG) {
+				try {
+					ContextCreator.agg_logger.phase_summary_logger.write(ContextCreator.getCurrentTick() + ","
+							+ PHASE_NAMES[phase] + "," + histogram.getTotalCount() + ","
+							+ histogram.getValueAtPercentile(50) + "," + histogram.getValueAtPercentile(95) + ","
+							+ histogram.getValueAtPercentile(99) + "," + histogram.getMaxValue() + ","
+							+ String.format("%.4f", meanImbalance) + ","
+							+ String.format("%.4f", this.phaseImbalanceMax[phase]));
+					ContextCreator.agg_logger.phase_summary_logger.newLine();
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			}
+			histogram.reset();
+			this.phaseImbalanceSum[phase] = 0;
+			this.phaseImbalanceMax[phase] = 0;
+			this.phaseTickCount[phase] = 0;
+		}
 
 		this.min_para_time = 0;
 		this.max_para_time = 0;
 		this.avg_para_time = 0;
 		this.seq_time = 0;
 	}
+	
+	private static String toMillis(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+}
+
+/* A long-lived thread bound to one partition, runs whatever phase the scheduler releases */
+class PartitionWorker implements Runnable {
+	private ThreadedScheduler scheduler;
+	private int threadID;
+
+	public PartitionWorker(ThreadedScheduler scheduler, int ID) {
+		this.scheduler = scheduler;
+		this.threadID = ID;
+	}
+
+	public int getThreadID() {
+		return this.threadID;
+	}
+
+	public void run() {
+		Phaser phaser = this.scheduler.getPhaser();
+		while (true) {
+			phaser.arriveAndAwaitAdvance(); // Wait for the next phase
+			if (this.scheduler.isShutdown()) {
+				phaser.arriveAndDeregister();
+				break;
+			}
+			this.scheduler.stepPartition(this.threadID);
+			phaser.arriveAndAwaitAdvance(); // Report the phase is done
+		}
+	}
 }
 
 /* A thread to call road's step() method */
-class PartitionRoadThread implements Callable<Integer> {
+class PartitionRoadThread implements Callable<Long> {
 	private ArrayList<Road> RoadSet;
 	private int threadID;
 
@@ -203,8 +463,8 @@ class PartitionRoadThread implements Callable<Integer> {
 		return this.threadID;
 	}
 
-	public Integer call() {
-		double start_t = System.currentTimeMillis();
+	public Long call() {
+		long start_t = System.nanoTime();
 		try {
 			for (Road r : this.RoadSet) {
 				r.step();
@@ -212,12 +472,45 @@ class PartitionRoadThread implements Callable<Integer> {
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
-		return (int) (System.currentTimeMillis() - start_t);
+		return System.nanoTime() - start_t;
+	}
+}
+
+/* A thread to call road's step() method on the road chunks it takes, until none is left */
+class PartitionRoadChunkThread implements Callable<Long> {
+	private ArrayList<ArrayList<Road>> roadChunks;
+	private AtomicInteger nextChunk; // Shared by the threads of the same phase
+	private int threadID;
+
+	public PartitionRoadChunkThread(ArrayList<ArrayList<Road>> roadChunks, AtomicInteger nextChunk, int ID) {
+		this.roadChunks = roadChunks;
+		this.nextChunk = nextChunk;
+		this.threadID = ID;
+	}
+
+	public int getThreadID() {
+		return this.threadID;
+	}
+
+	public Long call() {
+		long start_t = System.nanoTime();
+		try {
+			int chunk = this.nextChunk.getAndIncrement();
+			while (chunk < this.roadChunks.size()) {
+				for (Road r : this.roadChunks.get(chunk)) {
+					r.step();
+				}
+				chunk = this.nextChunk.getAndIncrement();
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+		return System.nanoTime() - start_t;
 	}
 }
 
 /* A thread to call zones's step() method */
-class PartitionZoneThread implements Callable<Integer> {
+class PartitionZoneThread implements Callable<Long> {
 	private ArrayList<Zone> ZoneSet;
 	private int threadID;
 
@@ -230,8 +523,8 @@ class PartitionZoneThread implements Callable<Integer> {
 		return this.threadID;
 	}
 
-	public Integer call() {
-		double start_t = System.currentTimeMillis();
+	public Long call() {
+		long start_t = System.nanoTime();
 		try {
 			for (Zone z : this.ZoneSet) {
 				z.step();
@@ -239,12 +532,12 @@ class PartitionZoneThread implements Callable<Integer> {
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
-		return (int) (System.currentTimeMillis() - start_t);
+		return System.nanoTime() - start_t;
 	}
 }
 
 /* A thread to call zones's ridehailingStep() method */
-class PartitionZoneRidehailingThread implements Callable<Integer> {
+class PartitionZoneRidehailingThread implements Callable<Long> {
 	private ArrayList<Zone> ZoneSet;
 	private int threadID;
 
@@ -257,8 +550,8 @@ class PartitionZoneRidehailingThread implements Callable<Integer> {
 		return this.threadID;
 	}
 
-	public Integer call() {
-		double start_t = System.currentTimeMillis();
+	public Long call() {
+		long start_t = System.nanoTime();
 		try {
 			for (Zone z : this.ZoneSet) {
 				z.ridehailingStep();
@@ -266,12 +559,12 @@ class PartitionZoneRidehailingThread implements Callable<Integer> {
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
-		return (int) (System.currentTimeMillis() - start_t);
+		return System.nanoTime() - start_t;
 	}
 }
 
 /* A thread to call charging station's step() method */
-class PartitionChargingStationThread implements Callable<Integer> {
+class PartitionChargingStationThread implements Callable<Long> {
 	private ArrayList<ChargingStation> ChargingStationSet;
 	private int threadID;
 
@@ -284,8 +577,8 @@ class PartitionChargingStationThread implements Callable<Integer> {
 		return this.threadID;
 	}
 
-	public Integer call() {
-		double start_t = System.currentTimeMillis();
+	public Long call() {
+		long start_t = System.nanoTime();
 		try {
 			for (ChargingStation cs : this.ChargingStationSet) {
 				cs.step();
@@ -293,12 +586,12 @@ class PartitionChargingStationThread implements Callable<Integer> {
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
-		return (int) (System.currentTimeMillis() - start_t);
+		return System.nanoTime() - start_t;
 	}
 }
 
 /* A thread to call signal's step() method */
-class PartitionSignalThread implements Callable<Integer> {
+class PartitionSignalThread implements Callable<Long> {
 	private ArrayList<Signal> signalSet;
 	private int threadID;
 
@@ -311,8 +604,8 @@ class PartitionSignalThread implements Callable<Integer> {
 		return this.threadID;
 	}
 
-	public Integer call() {
-		double start_t = System.currentTimeMillis();
+	public Long call() {
+		long start_t = System.nanoTime();
 		try {
 			for (Signal s : this.signalSet) {
 				s.step2();
@@ -320,6 +613,6 @@ class PartitionSignalThread implements Callable<Integer> {
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
-		return (int) (System.currentTimeMillis() - start_t);
+		return System.nanoTime() - start_t;
 	}
 }
@@ -11,12 +11,12 @@ import mets_r.ContextCreator;
 public class AnswerMessageSender extends MessageSender{
 	// Format the candidate routes information as a message string
 	public void sendCandidateRoutesForTaxi(Session session) throws IOException {
-		for (String OD : ContextCreator.route_UCB.keySet()) {
+		for (int i = 0; i < ContextCreator.route_UCB.size(); i++) {
 			HashMap<String, Object> jsonObj = new HashMap<String, Object>();
 			jsonObj.put("TYPE", "ANS_TaxiUCB");
-			jsonObj.put("OD", OD);
+			jsonObj.put("OD", ContextCreator.route_UCB.getOrigin(i) + "," + ContextCreator.route_UCB.getDestination(i));
 			jsonObj.put("SIZE", ContextCreator.route_UCB.size());
-			List<List<Integer>> roadLists = ContextCreator.route_UCB.get(OD);
+			List<List<Integer>> roadLists = ContextCreator.route_UCB.getRoutes(i);
 			jsonObj.put("road_lists", roadLists);
 			String message = JSONObject.toJSONString(jsonObj);
 			super.sendMessage(session, message);
@@ -25,12 +25,12 @@ public class AnswerMessageSender extends MessageSender{
 
 	// Format the bus candidate routes information as a message string
 	public void sendCandidateRoutesForBus(Session session) throws IOException {
-		for (String OD :  ContextCreator.route_UCB_bus.keySet()) {
+		for (int i = 0; i < ContextCreator.route_UCB_bus.size(); i++) {
 			HashMap<String, Object> jsonObj = new HashMap<String, Object>();
 			jsonObj.put("TYPE", "ANS_BusUCB");
-			jsonObj.put("BOD", OD);
+			jsonObj.put("BOD", ContextCreator.route_UCB_bus.getOrigin(i) + "," + ContextCreator.route_UCB_bus.getDestination(i));
 			jsonObj.put("SIZE", ContextCreator.route_UCB_bus.size());
-			List<List<Integer>> roadLists = ContextCreator.route_UCB_bus.get(OD);
+			List<List<Integer>> roadLists = ContextCreator.route_UCB_bus.getRoutes(i);
 			jsonObj.put("road_lists", roadLists);
 			String message = JSONObject.toJSONString(jsonObj);
 			super.sendMessage(session, message);
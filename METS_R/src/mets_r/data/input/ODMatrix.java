@@ -0,0 +1,245 @@
+package mets_r.data.input;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Hourly values of origin-destination pairs, read from a JSON object such as
+ * {"(131, 1)": [0.0, 1.0, ...], ...}.
+ *
+ * Only the pairs listed in the file are kept. The pairs are sorted by origin,
+ * then by destination, and their values are stored in one flat array with
+ * getHourNum() values per pair, so a pair is found by a binary search in the
+ * row of its origin. Pairs with fewer hours than the longest one are padded
+ * with 0.
+ *
+ * The file is read as a stream of tokens with the ContentHandler of
+ * json-simple, without building the JSON objects, so the memory used is
+ * about the size of the values.
+ *
+ * The matrix is read-only once built and can be shared by all threads.
+ **/
+
+public class ODMatrix {
+	private int hourNum;
+	private HashMap<Integer, Integer> originRow; // Row of each origin ID
+	private int[] rowStart; // The pairs of row r are from rowStart[r] to rowStart[r + 1] - 1
+	private int[] origins; // Origin ID of each row
+	private int[] destinations; // Destination ID of each pair
+	private double[] values; // Value of pair p at hour h is values[p * hourNum + h]
+
+	private ODMatrix() {
+	}
+
+	/**
+	 * Read a JSON object of origin-destination pairs
+	 * @param reader JSON object with keys "(origin, destination)" and arrays of hourly values
+	 * @return ODMatrix
+	 * @throws IOException if the reader fails
+	 * @throws ParseException if the JSON is malformed or not in the expected shape
+	 */
+	public static ODMatrix read(Reader reader) throws IOException, ParseException {
+		PairHandler handler = new PairHandler();
+		new JSONParser().parse(reader, handler);
+		return handler.build();
+	}
+
+	// Matrix without any pair
+	public static ODMatrix empty() {
+		return new PairHandler().build();
+	}
+
+	public int getHourNum() {
+		return this.hourNum;
+	}
+
+	public int getPairNum() {
+		return this.destinations.length;
+	}
+
+	public int getOriginNum() {
+		return this.origins.length;
+	}
+
+	public int getOrigin(int row) {
+		return this.origins[row];
+	}
+
+	public int getRowStart(int row) {
+		return this.rowStart[row];
+	}
+
+	public int getDestination(int pair) {
+		return this.destinations[pair];
+	}
+
+	// Value of the pair at the hour, 0 after the last hour
+	public double getValue(int pair, int hour) {
+		return hour < this.hourNum ? this.values[pair * this.hourNum + hour] : 0;
+	}
+
+	// Index of the pair, -1 if it is not in the file
+	public int findPair(int originID, int destID) {
+		Integer row = this.originRow.get(originID);
+		if (row == null) return -1;
+		int pair = Arrays.binarySearch(this.destinations, this.rowStart[row], this.rowStart[row + 1], destID);
+		return pair >= 0 ? pair : -1;
+	}
+
+	// Value of the pair at the hour, 0 if the pair is not in the file
+	public double get(int originID, int destID, int hour) {
+		int pair = this.findPair(originID, destID);
+		return (pair < 0 || hour < 0) ? 0 : this.getValue(pair, hour);
+	}
+
+	// Values of the pair for all hours, null if the pair is not in the file
+	public ArrayList<Double> get(int originID, int destID) {
+		int pair = this.findPair(originID, destID);
+		if (pair < 0) return null;
+		ArrayList<Double> result = new ArrayList<Double>(this.hourNum);
+		for (int h = 0; h < this.hourNum; h++) {
+			result.add(this.values[pair * this.hourNum + h]);
+		}
+		return result;
+	}
+
+	/**
+	 * Collects the pairs in file order while the tokens are read, with the
+	 * values of all pairs appended to one growing array
+	 */
+	private static class PairHandler implements ContentHandler {
+		private int depth = 0;
+		private int pairNum = 0;
+		private int[] pairOrigin = new int[1024];
+		private int[] pairDest = new int[1024];
+		private int[] pairStart = new int[1025]; // Values of pair p are from pairStart[p] to pairStart[p + 1] - 1
+		private double[] raw = new double[1024 * 24];
+		private int rawNum = 0;
+		private boolean inPair = false;
+
+		@Override
+		public void startJSON() {
+		}
+
+		@Override
+		public void endJSON() {
+		}
+
+		@Override
+		public boolean startObject() throws ParseException {
+			if (++this.depth > 1) throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "nested object");
+			return true;
+		}
+
+		@Override
+		public boolean endObject() {
+			this.depth--;
+			return true;
+		}
+
+		@Override
+		public boolean startObjectEntry(String key) throws ParseException {
+			// Key in the form of "(origin, destination)"
+			String[] inds = key.split(",");
+			if (inds.length != 2) throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, key);
+			if (this.pairNum == this.pairOrigin.length) {
+				int capacity = 2 * this.pairOrigin.length;
+				this.pairOrigin = Arrays.copyOf(this.pairOrigin, capacity);
+				this.pairDest = Arrays.copyOf(this.pairDest, capacity);
+				this.pairStart = Arrays.copyOf(this.pairStart, capacity + 1);
+			}
+			try {
+				this.pairOrigin[this.pairNum] = Integer.parseInt(inds[0].replace("(", "").trim());
+				this.pairDest[this.pairNum] = Integer.parseInt(inds[1].replace(")", "").trim());
+			} catch (NumberFormatException e) {
+				throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, key);
+			}
+			this.pairStart[this.pairNum] = this.rawNum;
+			return true;
+		}
+
+		@Override
+		public boolean endObjectEntry() {
+			this.pairNum++;
+			this.pairStart[this.pairNum] = this.rawNum;
+			return true;
+		}
+
+		@Override
+		public boolean startArray() throws ParseException {
+			if (this.depth != 1 || this.inPair) throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "nested array");
+			this.inPair = true;
+			return true;
+		}
+
+		@Override
+		public boolean endArray() {
+			this.inPair = false;
+			return true;
+		}
+
+		@Override
+		public boolean primitive(Object value) throws ParseException {
+			if (!this.inPair || !(value instanceof Number)) {
+				throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, value);
+			}
+			if (this.rawNum == this.raw.length) {
+				this.raw = Arrays.copyOf(this.raw, 2 * this.raw.length);
+			}
+			this.raw[this.rawNum++] = ((Number) value).doubleValue();
+			return true;
+		}
+
+		// Sort the pairs and pad them to the same number of hours, a later pair replaces an earlier one with the same key
+		private ODMatrix build() {
+			ODMatrix matrix = new ODMatrix();
+			Integer[] order = new Integer[this.pairNum];
+			int hourNum = 0;
+			for (int p = 0; p < this.pairNum; p++) {
+				order[p] = p;
+				hourNum = Math.max(hourNum, this.pairStart[p + 1] - this.pairStart[p]);
+			}
+			// Sorted by origin and destination, the pairs of the same key stay in file order
+			Arrays.sort(order, (a, b) -> this.pairOrigin[a] != this.pairOrigin[b]
+					? Integer.compare(this.pairOrigin[a], this.pairOrigin[b])
+					: Integer.compare(this.pairDest[a], this.pairDest[b]));
+			int[] kept = new int[this.pairNum];
+			int keptNum = 0;
+			for (int i = 0; i < this.pairNum; i++) {
+				int p = order[i];
+				if (i + 1 < this.pairNum && this.pairOrigin[order[i + 1]] == this.pairOrigin[p]
+						&& this.pairDest[order[i + 1]] == this.pairDest[p]) continue;
+				kept[keptNum++] = p;
+			}
+			matrix.hourNum = hourNum;
+			matrix.destinations = new int[keptNum];
+			matrix.values = new double[keptNum * hourNum];
+			matrix.originRow = new HashMap<Integer, Integer>();
+			int[] origins = new int[keptNum];
+			int[] rowStart = new int[keptNum + 1];
+			int rowNum = 0;
+			for (int i = 0; i < keptNum; i++) {
+				int p = kept[i];
+				if (rowNum == 0 || origins[rowNum - 1] != this.pairOrigin[p]) {
+					origins[rowNum] = this.pairOrigin[p];
+					rowStart[rowNum] = i;
+					matrix.originRow.put(this.pairOrigin[p], rowNum);
+					rowNum++;
+				}
+				matrix.destinations[i] = this.pairDest[p];
+				System.arraycopy(this.raw, this.pairStart[p], matrix.values, i * hourNum, this.pairStart[p + 1] - this.pairStart[p]);
+			}
+			rowStart[rowNum] = keptNum;
+			matrix.origins = Arrays.copyOf(origins, rowNum);
+			matrix.rowStart = Arrays.copyOf(rowStart, rowNum + 1);
+			return matrix;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package mets_r.data.input;
+
+import java.util.Random;
+
+/**
+ * Public demand of one origin zone for one hour, kept as the list of the
+ * destinations with a positive demand rate.
+ *
+ * Requests are sampled in two steps: the total number of requests is drawn
+ * from a Poisson distribution with the sum of the rates as mean, and each
+ * request is given a destination drawn in proportion to its rate from an
+ * alias table (Vose's method). The number of requests to each destination is
+ * then Poisson with the rate of the destination as mean, and the time of a
+ * draw does not depend on the number of destinations.
+ *
+ * The lists are read-only once built and can be shared by all threads.
+ **/
+
+public class OriginDemand {
+	private static final double POISSON_STEP = 30; // Largest mean drawn at once, exp(-mean) must not underflow
+	private int[] destinations;
+	private double[] rates; // Demand rate to each destination
+	private double totalRate;
+	private double[] aliasProb; // Probability to keep the slot instead of taking its alias
+	private int[] alias;
+
+	/**
+	 * @param destinations Destination zone IDs
+	 * @param rates Positive demand rate to each destination
+	 */
+	public OriginDemand(int[] destinations, double[] rates) {
+		int n = destinations.length;
+		this.destinations = destinations;
+		this.rates = rates;
+		double total = 0;
+		for (int k = 0; k < n; k++) {
+			total += rates[k];
+		}
+		this.totalRate = total;
+		// Slots with less than the mean rate are topped up by a slot with more
+		this.aliasProb = new double[n];
+		this.alias = new int[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallNum = 0;
+		int largeNum = 0;
+		double[] scaled = new double[n];
+		for (int k = 0; k < n; k++) {
+			scaled[k] = rates[k] * n / total;
+			if (scaled[k] < 1) {
+				small[smallNum++] = k;
+			} else {
+				large[largeNum++] = k;
+			}
+		}
+		while (smallNum > 0 && largeNum > 0) {
+			int s = small[--smallNum];
+			int l = large[--largeNum];
+			this.aliasProb[s] = scaled[s];
+			this.alias[s] = l;
+			scaled[l] -= 1 - scaled[s];
+			if (scaled[l] < 1) {
+				small[smallNum++] = l;
+			} else {
+				large[largeNum++] = l;
+			}
+		}
+		// The remaining slots are full up to rounding errors
+		while (largeNum > 0) {
+			int l = large[--largeNum];
+			this.aliasProb[l] = 1;
+			this.alias[l] = l;
+		}
+		while (smallNum > 0) {
+			int s = small[--smallNum];
+			this.aliasProb[s] = 1;
+			this.alias[s] = s;
+		}
+	}
+
+	public int size() {
+		return this.destinations.length;
+	}
+
+	public int getDestination(int k) {
+		return this.destinations[k];
+	}
+
+	public double getRate(int k) {
+		return this.rates[k];
+	}
+
+	public double getTotalRate() {
+		return this.totalRate;
+	}
+
+	// Index of a destination drawn in proportion to its rate
+	public int sampleDestination(Random rand) {
+		int k = rand.nextInt(this.destinations.length);
+		return rand.nextDouble() < this.aliasProb[k] ? k : this.alias[k];
+	}
+
+	/**
+	 * Number of requests in an interval
+	 * @param scale Factor from the demand rate to the mean number of requests in the interval
+	 */
+	public int sampleRequestNum(double scale, Random rand) {
+		return samplePoisson(this.getTotalRate() * scale, rand);
+	}
+
+	// Poisson draw by multiplying uniforms, with large means split into steps as the sum of Poisson draws is Poisson
+	public static int samplePoisson(double mean, Random rand) {
+		int num = 0;
+		while (mean > 0) {
+			double step = Math.min(mean, POISSON_STEP);
+			mean -= step;
+			double limit = Math.exp(-step);
+			double product = rand.nextDouble();
+			while (product > limit) {
+				num++;
+				product *= rand.nextDouble();
+			}
+		}
+		return num;
+	}
+}
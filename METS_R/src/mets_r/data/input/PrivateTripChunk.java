@@ -0,0 +1,86 @@
+package mets_r.data.input;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Private trips loaded in memory, kept as the records of PrivateTripFile
+ * (vid, time index, origin, destination) in one int array sorted by time
+ * index and origin. Hours are appended in order, and the chunk of the next
+ * hour is built by copyFrom, which leaves out the trips of the past hours.
+ * The trips of one time index and origin are found by a binary search, so a
+ * zone only reads its own departures.
+ *
+ * A chunk must not be changed once it is read by the zones, while it can be
+ * read by any number of threads.
+ **/
+
+public class PrivateTripChunk {
+	private static final int RECORD_SIZE = PrivateTripFile.RECORD_SIZE;
+	private int[] records;
+	private int size; // Number of trips
+
+	public PrivateTripChunk() {
+		this.records = new int[RECORD_SIZE * 1024];
+		this.size = 0;
+	}
+
+	// Append tripNum records from the buffer starting at the int offset, which must not be earlier than the loaded trips
+	public void addAll(IntBuffer buffer, int offset, int tripNum) {
+		int needed = RECORD_SIZE * (this.size + tripNum);
+		if (needed > this.records.length) {
+			this.records = Arrays.copyOf(this.records, Math.max(needed, 2 * this.records.length));
+		}
+		IntBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.get(this.records, RECORD_SIZE * this.size, RECORD_SIZE * tripNum);
+		this.size += tripNum;
+	}
+
+	// New chunk with the trips from timeIndex on
+	public PrivateTripChunk copyFrom(int timeIndex) {
+		int first = this.firstAtOrAfter(timeIndex);
+		PrivateTripChunk chunk = new PrivateTripChunk();
+		chunk.addAll(IntBuffer.wrap(this.records), RECORD_SIZE * first, this.size - first);
+		return chunk;
+	}
+
+	// Index of the first trip with time index not before timeIndex
+	private int firstAtOrAfter(int timeIndex) {
+		return this.firstAtOrAfter(timeIndex, Integer.MIN_VALUE);
+	}
+
+	// Index of the first trip not before the time index and origin
+	private int firstAtOrAfter(int timeIndex, int originID) {
+		int lo = 0;
+		int hi = this.size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int time = this.records[RECORD_SIZE * mid + 1];
+			if (time < timeIndex || (time == timeIndex && this.records[RECORD_SIZE * mid + 2] < originID)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Trips departing at the time index from the origin zone
+	 * @return HashMap<Integer, Integer> Destination of each vehicle ID
+	 */
+	public HashMap<Integer, Integer> getTrips(int timeIndex, int originID) {
+		HashMap<Integer, Integer> result = new HashMap<Integer, Integer>();
+		for (int i = this.firstAtOrAfter(timeIndex, originID); i < this.size
+				&& this.records[RECORD_SIZE * i + 1] == timeIndex && this.records[RECORD_SIZE * i + 2] == originID; i++) {
+			result.put(this.records[RECORD_SIZE * i], this.records[RECORD_SIZE * i + 3]);
+		}
+		return result;
+	}
+
+	public int size() {
+		return this.size;
+	}
+}
@@ -0,0 +1,263 @@
+package mets_r.data.input;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import mets_r.ContextCreator;
+
+/**
+ * Binary copy of a private trip CSV file (vid, time_ind, origin, destination).
+ *
+ * Trips are sorted by departure time index, then by origin zone, and stored
+ * as four ints each, so the trips of one time index and origin are next to
+ * each other. When a vehicle has several trips at the same time index only
+ * the last one of the CSV file is kept, as it replaced the others when the
+ * trips were keyed by vehicle. An hour table gives the first trip of each
+ * hour: the trips of hour h are from getHourStart(h) to getHourStart(h + 1) - 1,
+ * which are the trips with time index in (h * 60, (h + 1) * 60] (and time
+ * index 0 for the first hour). The
+ * header holds four ints (magic, version, number of trips and hours) and two
+ * longs (length and last modified time of the CSV file), all big-endian. The
+ * file is memory-mapped, so reading one hour is a bulk copy of its records.
+ *
+ * The binary file is created once next to the CSV file by open() and is
+ * created again when the CSV file has changed or the file is of another
+ * version. When it cannot be written the converted trips are kept in memory.
+ **/
+
+public class PrivateTripFile {
+	public static final int MAGIC = 0x4D525054; // "MRPT"
+	public static final int VERSION = 3;
+	public static final int RECORD_SIZE = 4; // vid, time index, origin, destination
+	private static final int HEADER_SIZE = 32;
+	private static final int MINUTES_PER_HOUR = 60;
+
+	private IntBuffer hourStart;
+	private IntBuffer records;
+
+	private PrivateTripFile(IntBuffer hourStart, IntBuffer records) {
+		this.hourStart = hourStart;
+		this.records = records;
+	}
+
+	/**
+	 * Load the binary copy of the CSV file, converting the CSV file first if
+	 * the copy does not exist, was converted from another version of the CSV
+	 * file or cannot be loaded
+	 * @param csvFile Path of the private trip CSV file
+	 * @return PrivateTripFile
+	 * @throws IOException if the CSV file cannot be read
+	 */
+	public static PrivateTripFile open(String csvFile) throws IOException {
+		String binFile = getBinaryFileName(csvFile);
+		File csv = new File(csvFile);
+		long csvLength = csv.length();
+		long csvModified = csv.lastModified();
+		if (new File(binFile).exists()) {
+			try {
+				return load(binFile, csvLength, csvModified);
+			} catch (IOException e) {
+				ContextCreator.logger.info(e.getMessage() + ", converting it again");
+			}
+		}
+		long startTime = System.currentTimeMillis();
+		PrivateTripFile trips = convert(csvFile);
+		ContextCreator.logger.info("Converted " + trips.getTripNum() + " private trips from " + csvFile + " in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+		try {
+			trips.save(binFile, csvLength, csvModified);
+		} catch (IOException e) {
+			ContextCreator.logger.warn("Cannot write " + binFile + ", the private trips are kept in memory: "
+					+ e.getMessage());
+		}
+		return trips;
+	}
+
+	public static String getBinaryFileName(String csvFile) {
+		return (csvFile.endsWith(".csv") ? csvFile.substring(0, csvFile.length() - 4) : csvFile) + ".bin";
+	}
+
+	/**
+	 * Read a private trip CSV file with a header line into memory
+	 */
+	public static PrivateTripFile convert(String csvFile) throws IOException {
+		int[] data = new int[RECORD_SIZE * 1024];
+		int tripNum = 0;
+		try (BufferedReader reader = new BufferedReader(new FileReader(csvFile))) {
+			reader.readLine(); // Skip the header
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) continue;
+				String[] result = line.split(",");
+				if (RECORD_SIZE * (tripNum + 1) > data.length) {
+					data = Arrays.copyOf(data, 2 * data.length);
+				}
+				for (int j = 0; j < RECORD_SIZE; j++) {
+					data[RECORD_SIZE * tripNum + j] = Integer.parseInt(result[j]);
+				}
+				tripNum++;
+			}
+		}
+		// Sort by time index, keeping the order of the file for the trips of the same time
+		long[] byTime = new long[tripNum];
+		for (int i = 0; i < tripNum; i++) {
+			byTime[i] = ((long) data[RECORD_SIZE * i + 1] << 32) | i;
+		}
+		Arrays.sort(byTime);
+		// Within each time index, keep the last trip of each vehicle and sort the trips by origin
+		int[] order = new int[tripNum];
+		int keptNum = 0;
+		int first = 0;
+		while (first < tripNum) {
+			int last = first;
+			while (last < tripNum && (byTime[last] >> 32) == (byTime[first] >> 32)) {
+				last++;
+			}
+			long[] byVehicle = new long[last - first];
+			for (int i = first; i < last; i++) {
+				int k = (int) byTime[i];
+				byVehicle[i - first] = ((long) data[RECORD_SIZE * k] << 32) | k;
+			}
+			Arrays.sort(byVehicle);
+			long[] byOrigin = new long[byVehicle.length];
+			int n = 0;
+			for (int i = 0; i < byVehicle.length; i++) {
+				if (i + 1 < byVehicle.length && (byVehicle[i + 1] >> 32) == (byVehicle[i] >> 32)) continue; // Replaced by a later trip
+				int k = (int) byVehicle[i];
+				byOrigin[n++] = ((long) data[RECORD_SIZE * k + 2] << 32) | k;
+			}
+			Arrays.sort(byOrigin, 0, n);
+			for (int i = 0; i < n; i++) {
+				order[keptNum++] = (int) byOrigin[i];
+			}
+			first = last;
+		}
+		tripNum = keptNum;
+
+		int[] records = new int[RECORD_SIZE * tripNum];
+		for (int i = 0; i < tripNum; i++) {
+			System.arraycopy(data, RECORD_SIZE * order[i], records, RECORD_SIZE * i, RECORD_SIZE);
+		}
+		int maxTime = tripNum == 0 ? 0 : records[RECORD_SIZE * (tripNum - 1) + 1];
+		int hourNum = Math.max(1, (maxTime + MINUTES_PER_HOUR - 1) / MINUTES_PER_HOUR);
+		int[] hourStarts = new int[hourNum + 1];
+		int h = 1;
+		for (int i = 0; i < tripNum; i++) {
+			int time = records[RECORD_SIZE * i + 1];
+			while (h < hourNum && time > h * MINUTES_PER_HOUR) {
+				hourStarts[h++] = i;
+			}
+		}
+		while (h <= hourNum) {
+			hourStarts[h++] = tripNum;
+		}
+		return new PrivateTripFile(IntBuffer.wrap(hourStarts), IntBuffer.wrap(records));
+	}
+
+	/**
+	 * Write the trips in the binary format, tagged with the CSV file they were converted from
+	 */
+	public void save(String binFile, long csvLength, long csvModified) throws IOException {
+		// Write to a temporary file first so that an interrupted conversion leaves no partial file
+		File tmp = new File(binFile + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.getTripNum());
+			out.writeInt(this.getHourNum());
+			out.writeLong(csvLength);
+			out.writeLong(csvModified);
+			for (int i = 0; i < this.hourStart.limit(); i++) {
+				out.writeInt(this.hourStart.get(i));
+			}
+			for (int i = 0; i < this.records.limit(); i++) {
+				out.writeInt(this.records.get(i));
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		File bin = new File(binFile);
+		if ((bin.exists() && !bin.delete()) || !tmp.renameTo(bin)) {
+			tmp.delete();
+			throw new IOException("Cannot replace " + binFile);
+		}
+	}
+
+	/**
+	 * Memory-map a file written by save()
+	 * @param csvLength Length of the CSV file the trips must be converted from
+	 * @param csvModified Last modified time of that CSV file
+	 * @throws IOException if the file cannot be read, is not a private trip file of this version or
+	 * was converted from another CSV file
+	 */
+	public static PrivateTripFile load(String binFile, long csvLength, long csvModified) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(binFile, "r"); FileChannel channel = file.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+				throw new IOException(binFile + " is not a private trip file");
+			}
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException(binFile + " has version " + buffer.getInt(4) + ", expected " + VERSION);
+			}
+			if (buffer.getLong(16) != csvLength || buffer.getLong(24) != csvModified) {
+				throw new IOException(binFile + " was converted from another version of the CSV file");
+			}
+			int tripNum = buffer.getInt(8);
+			int hourNum = buffer.getInt(12);
+			long expectedSize = HEADER_SIZE + 4L * (hourNum + 1) + 4L * RECORD_SIZE * tripNum;
+			if (buffer.capacity() != expectedSize) {
+				throw new IOException(binFile + " is truncated or corrupted");
+			}
+			ByteBuffer view = buffer.duplicate();
+			view.position(HEADER_SIZE);
+			view.limit(HEADER_SIZE + 4 * (hourNum + 1));
+			IntBuffer hourStart = view.slice().asIntBuffer();
+			view = buffer.duplicate();
+			view.position(HEADER_SIZE + 4 * (hourNum + 1));
+			IntBuffer records = view.slice().asIntBuffer();
+			return new PrivateTripFile(hourStart, records);
+		}
+	}
+
+	public int getTripNum() {
+		return this.records.limit() / RECORD_SIZE;
+	}
+
+	public int getHourNum() {
+		return this.hourStart.limit() - 1;
+	}
+
+	public int getHourStart(int hour) {
+		return this.hourStart.get(hour);
+	}
+
+	// Number of trips of one hour, 0 after the last hour
+	public int getHourTripNum(int hour) {
+		if (hour < 0 || hour >= this.getHourNum()) return 0;
+		return this.getHourStart(hour + 1) - this.getHourStart(hour);
+	}
+
+	/**
+	 * Add the trips of one hour to the chunk
+	 * @return int Number of trips added, 0 after the last hour
+	 */
+	public int readHour(int hour, PrivateTripChunk chunk) {
+		int tripNum = this.getHourTripNum(hour);
+		if (tripNum > 0) {
+			chunk.addAll(this.records, RECORD_SIZE * this.getHourStart(hour), tripNum);
+		}
+		return tripNum;
+	}
+}
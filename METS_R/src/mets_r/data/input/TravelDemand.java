@@ -5,86 +5,80 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import au.com.bytecode.opencsv.CSVReader;
 import mets_r.ContextCreator;
 import mets_r.GlobalVariables;
 
 import java.util.*;
-import java.util.Map.Entry;
-
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
 /**
- * Read hourly demand into treemap with origin, destination zone indexes as the keys
+ * Read hourly demand into sparse matrices with origin, destination zone indexes as the keys
  * @author: Zengxiang Lei 
  **/
 
 public class TravelDemand {
-	private TreeMap<Integer, HashMap<Integer, ArrayList<Integer>>> privateEVTravelDemand; // The outer key is departure time, the inner key is vid
-	private TreeMap<Integer, HashMap<Integer, ArrayList<Integer>>> privateGVTravelDemand;
-	private TreeMap<Integer, TreeMap<Integer, ArrayList<Double>>> publicTravelDemand; // The outer key is the origin and the
-																				// inner key is the destination
+	private volatile PrivateTripChunk privateEVTravelDemand; // Trips of the loaded hours, sorted by departure time
+	private volatile PrivateTripChunk privateGVTravelDemand;
+	private ODMatrix publicTravelDemand; // Hourly demand of each origin-destination pair
+	private HashMap<Integer, OriginDemand[]> publicOriginDemand; // Destinations with demand from each origin, for each hour
 	private List<Integer> waitingThreshold;
-	private TreeMap<Integer, TreeMap<Integer, ArrayList<Double>>> sharePercentage;
+	private ODMatrix sharePercentage;
 	
-	private BufferedReader privateEVTripReader;
-	private BufferedReader privateGVTripReader;
+	private PrivateTripFile privateEVTripFile;
+	private PrivateTripFile privateGVTripFile;
+	private ExecutorService prefetchExecutor; // Reads the trips of the next hour, null if PRIVATE_DEMAND_PREFETCH is false
+	private Future<PrivateTripChunk[]> nextChunks; // EV and GV chunks of the next hour
 	
 	private int hour;
 	
 
 	public TravelDemand() {
 		ContextCreator.logger.info("Read demand.");
-		privateEVTravelDemand = new TreeMap<Integer, HashMap<Integer, ArrayList<Integer>>>();
-		privateGVTravelDemand = new TreeMap<Integer, HashMap<Integer, ArrayList<Integer>>>();
-		publicTravelDemand = new TreeMap<Integer, TreeMap<Integer, ArrayList<Double>>>();
+		privateEVTravelDemand = new PrivateTripChunk();
+		privateGVTravelDemand = new PrivateTripChunk();
+		publicTravelDemand = ODMatrix.empty();
 		waitingThreshold = new ArrayList<Integer>();
-		sharePercentage = new TreeMap<Integer, TreeMap<Integer, ArrayList<Double>>>();
+		sharePercentage = ODMatrix.empty();
 		readPublicDemandFile();
+		buildOriginDemand();
 		readWaitTimeFile();
 		if(GlobalVariables.RH_DEMAND_SHARABLE) {
 			readSharePercentFile();
 		}
 		
 		try {
-			privateEVTripReader = new BufferedReader(new FileReader(GlobalVariables.EV_DEMAND_FILE));
-			privateGVTripReader = new BufferedReader(new FileReader(GlobalVariables.GV_DEMAND_FILE));
-			
-			// skip the first line
-			privateEVTripReader.readLine();
-			privateGVTripReader.readLine();
-			
+			// Converted to the binary format on the first run
+			privateEVTripFile = PrivateTripFile.open(GlobalVariables.EV_DEMAND_FILE);
+			privateGVTripFile = PrivateTripFile.open(GlobalVariables.GV_DEMAND_FILE);
 		} catch (IOException e) {
+			ContextCreator.logger.error("Fail to open the private trip demand with error " + e.toString());
 			e.printStackTrace();
 		}
 		
 		hour = 0;
+		if (GlobalVariables.PRIVATE_DEMAND_PREFETCH) {
+			prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "private-demand-prefetch");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
 	}
 
-	@SuppressWarnings("unchecked")
 	public void readPublicDemandFile() {
-		JSONParser parser = new JSONParser();
-		try {
-			Object obj = parser.parse(new FileReader(GlobalVariables.RH_DEMAND_FILE));
-			JSONObject jsonObject = (JSONObject) obj;
-
-			for (String OD : (Set<String>) jsonObject.keySet()) {
-				ArrayList<Double> value = (ArrayList<Double>) jsonObject.get(OD);
-
-				String[] inds = OD.split(",");
-				int originInd = Integer.parseInt(inds[0].replace("(", "").trim());
-				;
-				int destInd = Integer.parseInt(inds[1].replace(")", "").trim());
-
-				if (!publicTravelDemand.containsKey(originInd)) {
-					publicTravelDemand.put(originInd, new TreeMap<Integer, ArrayList<Double>>());
-				}
-
-				publicTravelDemand.get(originInd).put(destInd, value);
-			}
-			
+		long startTime = System.currentTimeMillis();
+		try (Reader reader = new BufferedReader(new FileReader(GlobalVariables.RH_DEMAND_FILE))) {
+			publicTravelDemand = ODMatrix.read(reader);
+			Runtime runtime = Runtime.getRuntime();
+			ContextCreator.logger.info("Public demand of " + publicTravelDemand.getPairNum() + " origin-destination pairs has been loaded in "
+					+ (System.currentTimeMillis() - startTime) + " ms, used heap "
+					+ (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + " MB");
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -94,88 +88,82 @@ public class TravelDemand {
 		}
 	}
 	
+	// Keep the destinations with a positive demand of each origin and hour, for sampling the requests
+	public void buildOriginDemand() {
+		publicOriginDemand = new HashMap<Integer, OriginDemand[]>();
+		int pairNum = 0;
+		for (int row = 0; row < publicTravelDemand.getOriginNum(); row++) {
+			int first = publicTravelDemand.getRowStart(row);
+			int last = publicTravelDemand.getRowStart(row + 1);
+			OriginDemand[] hourly = new OriginDemand[GlobalVariables.HOUR_OF_DEMAND];
+			int[] destinations = new int[last - first];
+			double[] rates = new double[last - first];
+			for (int hour = 0; hour < GlobalVariables.HOUR_OF_DEMAND; hour++) {
+				int n = 0;
+				for (int pair = first; pair < last; pair++) {
+					double rate = publicTravelDemand.getValue(pair, hour);
+					if (rate > 0) {
+						destinations[n] = publicTravelDemand.getDestination(pair);
+						rates[n] = rate;
+						n++;
+					}
+				}
+				if (n > 0) {
+					hourly[hour] = new OriginDemand(Arrays.copyOf(destinations, n), Arrays.copyOf(rates, n));
+					pairNum += n;
+				}
+			}
+			publicOriginDemand.put(publicTravelDemand.getOrigin(row), hourly);
+		}
+		ContextCreator.logger.info("Public demand has " + pairNum + " origin-destination pairs with positive demand over "
+				+ GlobalVariables.HOUR_OF_DEMAND + " hours");
+	}
+	
 	public void loadPrivateDemandChunk() { // For loading the next hour demand
-		// Add the logger
-		int ev_trip_number = 0;
-		int gv_trip_number = 0;
-		// clear the previous chunk
-		Iterator<Map.Entry<Integer, HashMap<Integer, ArrayList<Integer>>>> iter = this.privateGVTravelDemand.entrySet().iterator();
-	    while (iter.hasNext()) {
-	        if (iter.next().getKey() < hour * 60) {
-	            iter.remove();
-	        }
-	    }
-	    Iterator<Map.Entry<Integer,HashMap<Integer, ArrayList<Integer>>>> iter2 = this.privateEVTravelDemand.entrySet().iterator();
-	    while (iter2.hasNext()) {
-	        if (iter2.next().getKey() < hour * 60) {
-	            iter2.remove();
-	        }
-	    }
-		// read the new chunk
-	    try {
-	    	boolean flag = true;
-		    while(flag) {
-		    	String line = privateEVTripReader.readLine();
-		    	if(line != null) {
-		    		String[] result = line.split(",");
-		    		int vid = Integer.parseInt(result[0]);
-		    		int time_ind = Integer.parseInt(result[1]);
-		    		int origin = Integer.parseInt(result[2]);
-		    		int dest = Integer.parseInt(result[3]);
-		    		
-		    		// add it to the privateEVTravelDemand
-		    		if(!privateEVTravelDemand.containsKey(time_ind)) {
-		    			privateEVTravelDemand.put(time_ind, new HashMap<Integer, ArrayList<Integer>>());
-		    		}
-		    		ArrayList<Integer> od = new ArrayList<Integer>();
-		    		od.add(origin);
-		    		od.add(dest);
-		    		privateEVTravelDemand.get(time_ind).put(vid, od);
-		    		
-		    		ev_trip_number += 1;
-		    		
-		    		// if this demand happens earlier/within than this hour, continue the reading
-		    		if(time_ind <= (hour+1) * 60 ) continue;
-		    	}
-		    	flag = false;
-		    }
-		    flag = true;
-		    while(flag) {
-		    	String line = privateGVTripReader.readLine();
-		    	if(line != null) {
-		    		String[] result = line.split(",");
-		    		int vid = Integer.parseInt(result[0]);
-		    		int time_ind = Integer.parseInt(result[1]);
-		    		int origin = Integer.parseInt(result[2]);
-		    		int dest = Integer.parseInt(result[3]);
-		    		
-		    		// add it to the privateEVTravelDemand
-		    		if(!privateGVTravelDemand.containsKey(time_ind)) {
-		    			privateGVTravelDemand.put(time_ind, new HashMap<Integer, ArrayList<Integer>>());
-		    		}
-		    		ArrayList<Integer> od = new ArrayList<Integer>();
-		    		od.add(origin);
-		    		od.add(dest);
-		    		privateGVTravelDemand.get(time_ind).put(vid, od);
-		    		
-		    		gv_trip_number += 1;
-		    		
-		    		// if this demand happens earlier/within than this hour, continue the reading
-		    		if(time_ind <= (hour+1) * 60 ) continue;
-		    	}
-		    	flag = false;
-		    }
-		    
-		    ContextCreator.logger.info("Private trips at hour " + hour + " has been loaded, EV trip number: " + ev_trip_number + ", GV trip number: " + gv_trip_number);
-	    }
-	    catch (IOException e) {
-	    	ContextCreator.logger.error(
-					"Fail to load the private trip demand chunk with error " + e.toString());
-	    	e.printStackTrace();
-	    }
-	    
-	    hour += 1;
-		
+		long startTime = System.currentTimeMillis();
+		PrivateTripChunk[] chunks = null;
+		if (this.nextChunks != null) { // Prefetched during the last hour
+			try {
+				chunks = this.nextChunks.get();
+			} catch (InterruptedException | ExecutionException e) {
+				e.printStackTrace();
+			}
+			this.nextChunks = null;
+		}
+		boolean prefetched = chunks != null;
+		if (!prefetched) {
+			chunks = this.readChunks(hour, this.privateEVTravelDemand, this.privateGVTravelDemand);
+		}
+		// Swap in the new chunks, so the zones only see complete chunks
+		this.privateEVTravelDemand = chunks[0];
+		this.privateGVTravelDemand = chunks[1];
+		int ev_trip_number = this.privateEVTripFile == null ? 0 : this.privateEVTripFile.getHourTripNum(hour);
+		int gv_trip_number = this.privateGVTripFile == null ? 0 : this.privateGVTripFile.getHourTripNum(hour);
+		Runtime runtime = Runtime.getRuntime();
+		ContextCreator.logger.info("Private trips at hour " + hour + " has been " + (prefetched ? "swapped in" : "loaded")
+				+ ", EV trip number: " + ev_trip_number + ", GV trip number: " + gv_trip_number + ", in "
+				+ (System.currentTimeMillis() - startTime) + " ms, used heap "
+				+ (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + " MB");
+		hour += 1;
+		if (this.prefetchExecutor != null) {
+			final int nextHour = hour;
+			final PrivateTripChunk ev = chunks[0];
+			final PrivateTripChunk gv = chunks[1];
+			this.nextChunks = this.prefetchExecutor.submit(() -> this.readChunks(nextHour, ev, gv));
+		}
+	}
+	
+	/**
+	 * New EV and GV chunks for the hour: the trips of the given chunks from the
+	 * start of the hour on, and the trips of the hour read from the files. The
+	 * given chunks are only read, so it can run while the zones use them.
+	 */
+	private PrivateTripChunk[] readChunks(int hour, PrivateTripChunk previousEV, PrivateTripChunk previousGV) {
+		PrivateTripChunk ev = previousEV.copyFrom(hour * 60); // Drop the previous hours
+		PrivateTripChunk gv = previousGV.copyFrom(hour * 60);
+		if (this.privateEVTripFile != null) this.privateEVTripFile.readHour(hour, ev);
+		if (this.privateGVTripFile != null) this.privateGVTripFile.readHour(hour, gv);
+		return new PrivateTripChunk[] { ev, gv };
 	}
 	
 	public void readWaitTimeFile() {
@@ -203,27 +191,9 @@ public class TravelDemand {
 		}
 	}
 	
-	@SuppressWarnings("unchecked")
 	public void readSharePercentFile() {
-		JSONParser parser = new JSONParser();
-		try {
-			Object obj = parser.parse(new FileReader(GlobalVariables.RH_DEMAND_FILE));
-			JSONObject jsonObject = (JSONObject) obj;
-
-			for (String OD : (Set<String>) jsonObject.keySet()) {
-				ArrayList<Double> value = (ArrayList<Double>) jsonObject.get(OD);
-
-				String[] inds = OD.split(",");
-				int originInd = Integer.parseInt(inds[0].replace("(", "").trim());
-				;
-				int destInd = Integer.parseInt(inds[1].replace(")", "").trim());
-
-				if (!sharePercentage.containsKey(originInd)) {
-					sharePercentage.put(originInd, new TreeMap<Integer, ArrayList<Double>>());
-				}
-
-				sharePercentage.get(originInd).put(destInd, value);
-			}
+		try (Reader reader = new BufferedReader(new FileReader(GlobalVariables.RH_DEMAND_FILE))) {
+			sharePercentage = ODMatrix.read(reader);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -235,65 +205,41 @@ public class TravelDemand {
 	
 	public HashMap<Integer, Integer> getPrivateEVTravelDemand(int timeIndex, int originID) {
 		// return a list of vid, dest
-		HashMap<Integer, Integer> result = new HashMap<Integer, Integer>();
-		if (this.privateEVTravelDemand.containsKey(timeIndex)) {
-			for(Entry<Integer, ArrayList<Integer>> item: this.privateEVTravelDemand.get(timeIndex).entrySet()) {
-				int vid = item.getKey();
-				int origin = item.getValue().get(0);
-				int dest = item.getValue().get(1);
-				if(origin == originID) {
-					result.put(vid, dest);
-				}
-			}
-		}
-		return result;
+		return this.privateEVTravelDemand.getTrips(timeIndex, originID);
 	}
 	
 	public HashMap<Integer, Integer> getPrivateGVTravelDemand(int timeIndex, int originID) {
 		// return a list of vid, dest
-		HashMap<Integer, Integer> result = new HashMap<Integer, Integer>();
-		if (this.privateGVTravelDemand.containsKey(timeIndex)) {
-			for(Entry<Integer, ArrayList<Integer>> item: this.privateGVTravelDemand.get(timeIndex).entrySet()) {
-				int vid = item.getKey();
-				int origin = item.getValue().get(0);
-				int dest = item.getValue().get(1);
-				if(origin == originID) {
-					result.put(vid, dest);
-				}
-			}
-		}
-		return result;
+		return this.privateGVTravelDemand.getTrips(timeIndex, originID);
 	}
 	
 	public double getPublicTravelDemand(int originID, int destID, int hour) {
-		if (publicTravelDemand.containsKey(originID)) {
-			if (publicTravelDemand.get(originID).containsKey(destID)) {
-				if (hour < GlobalVariables.HOUR_OF_DEMAND) {
-					return publicTravelDemand.get(originID).get(destID).get(hour);
-				}
-
-			}
+		if (hour < GlobalVariables.HOUR_OF_DEMAND) {
+			return publicTravelDemand.get(originID, destID, hour);
 		}
 		return 0d;
 	}
 	
+	// Destinations with demand from the origin at the hour, null if there is none
+	public OriginDemand getPublicOriginDemand(int originID, int hour) {
+		OriginDemand[] hourly = publicOriginDemand.get(originID);
+		if (hourly != null && hour < GlobalVariables.HOUR_OF_DEMAND) {
+			return hourly[hour];
+		}
+		return null;
+	}
+	
 	public ArrayList<Double> getPublicTravelDemand(int originID, int destID) {
-		if (publicTravelDemand.containsKey(originID)) {
-			if (publicTravelDemand.get(originID).containsKey(destID)) {
-				return publicTravelDemand.get(originID).get(destID);
-			}
+		ArrayList<Double> value = publicTravelDemand.get(originID, destID);
+		if (value != null) {
+			return value;
 		}
 		return new ArrayList<Double>(Collections.nCopies(GlobalVariables.HOUR_OF_DEMAND, 0.0d));
 	}
 	
 	public double getSharableRate(int originID, int destID, int hour) {
-		if (sharePercentage.containsKey(originID)) {
-			if (sharePercentage.get(originID).containsKey(destID)) {
-				if (hour < GlobalVariables.HOUR_OF_DEMAND) {
-					return sharePercentage.get(originID).get(destID).get(hour);
-				}
-
-			}
+		if (hour < GlobalVariables.HOUR_OF_DEMAND) {
+			return sharePercentage.get(originID, destID, hour);
 		}
 		return 0d;
 	}
@@ -306,12 +252,13 @@ public class TravelDemand {
 	}
 	
 	public void close() {
-		try {
-			this.privateEVTripReader.close();
-			this.privateGVTripReader.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if (this.prefetchExecutor != null) {
+			this.prefetchExecutor.shutdownNow();
+			this.prefetchExecutor = null;
 		}
+		this.nextChunks = null;
+		// The trip files are memory-mapped, the mappings are released with the objects
+		this.privateEVTripFile = null;
+		this.privateGVTripFile = null;
 	}
 }
\ No newline at end of file
@@ -18,6 +18,8 @@ public class AggregatedLogger {
 	public BufferedWriter network_logger; // Road network vehicle logger
 	public BufferedWriter zone_logger; // Zone logger
 	public BufferedWriter charger_logger; // Charger logger
+	public BufferedWriter phase_logger; // Per-tick partition time logger
+	public BufferedWriter phase_summary_logger; // Phase time percentile logger
 //	public BufferedWriter traj_logger; // Trajectory logger
 	
 	public AggregatedLogger() {
@@ -101,6 +103,27 @@ public class AggregatedLogger {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		if (GlobalVariables.PHASE_TIME_LOG) {
+			try {
+				FileWriter fw = new FileWriter(outpath + File.separatorChar + "PhaseLog-" + timestamp + ".csv", false);
+				phase_logger = new BufferedWriter(fw);
+				phase_logger.write("tick,phase,slowestPartition,minTime,maxTime,meanTime,imbalance,partitionTimes");
+				phase_logger.newLine();
+				phase_logger.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			try {
+				FileWriter fw = new FileWriter(outpath + File.separatorChar + "PhaseSummaryLog-" + timestamp + ".csv",
+						false);
+				phase_summary_logger = new BufferedWriter(fw);
+				phase_summary_logger.write("tick,phase,count,p50,p95,p99,max,meanImbalance,maxImbalance");
+				phase_summary_logger.newLine();
+				phase_summary_logger.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 //		try {
 //			FileWriter fw = new FileWriter(outpath + File.separatorChar + "TrajLog-" + timestamp + ".csv", false);
 //			traj_logger = new BufferedWriter(fw);
@@ -121,6 +144,8 @@ public class AggregatedLogger {
 			network_logger.flush();
 			zone_logger.flush();
 			charger_logger.flush();
+			if (phase_logger != null) phase_logger.flush();
+			if (phase_summary_logger != null) phase_summary_logger.flush();
 //			traj_logger.flush();
 		}
 		catch (IOException e) {
@@ -143,6 +168,8 @@ public class AggregatedLogger {
 			network_logger.close();
 			zone_logger.close();
 			charger_logger.close();
+			if (phase_logger != null) phase_logger.close();
+			if (phase_summary_logger != null) phase_summary_logger.close();
 //			traj_logger.close();
 		}
 		catch (IOException e) {
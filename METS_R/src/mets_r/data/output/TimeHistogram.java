@@ -0,0 +1,83 @@
+package mets_r.data.output;
+
+import java.util.Arrays;
+
+/**
+ * A log-linear histogram of durations in nanoseconds, in the spirit of HdrHistogram.
+ *
+ * Values below 32 ns are counted exactly, larger values fall into buckets of 16
+ * per power of two, so the reported percentiles are within about 6% of the
+ * recorded values while recording stays a couple of shifts and an increment.
+ *
+ * Not thread-safe, it is meant to be filled by the scheduler thread.
+ */
+public class TimeHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+	private static final int BUCKET_NUM = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * HALF_COUNT;
+
+	private long[] counts;
+	private long totalCount;
+	private long maxValue;
+	private long sum;
+
+	public TimeHistogram() {
+		this.counts = new long[BUCKET_NUM];
+		this.reset();
+	}
+
+	public void record(long value) {
+		if (value < 0) value = 0;
+		this.counts[bucketIndex(value)]++;
+		this.totalCount++;
+		this.sum += value;
+		this.maxValue = Math.max(this.maxValue, value);
+	}
+
+	// Smallest recorded bucket value such that a fraction p of the records are not larger than it
+	public long getValueAtPercentile(double p) {
+		if (this.totalCount == 0) return 0;
+		long target = Math.max(1, (long) Math.ceil(p / 100.0 * this.totalCount));
+		long cumulative = 0;
+		for (int i = 0; i < BUCKET_NUM; i++) {
+			cumulative += this.counts[i];
+			if (cumulative >= target) {
+				return Math.min(highestValue(i), this.maxValue);
+			}
+		}
+		return this.maxValue;
+	}
+
+	public long getMaxValue() {
+		return this.maxValue;
+	}
+
+	public double getMean() {
+		return this.totalCount == 0 ? 0 : this.sum / (double) this.totalCount;
+	}
+
+	public long getTotalCount() {
+		return this.totalCount;
+	}
+
+	public void reset() {
+		Arrays.fill(this.counts, 0);
+		this.totalCount = 0;
+		this.maxValue = 0;
+		this.sum = 0;
+	}
+
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKET_COUNT + (shift - 1) * HALF_COUNT + (int) ((value >>> shift) - HALF_COUNT);
+	}
+
+	private static long highestValue(int index) {
+		if (index < SUB_BUCKET_COUNT) return index;
+		int shift = (index - SUB_BUCKET_COUNT) / HALF_COUNT + 1;
+		long mantissa = (index - SUB_BUCKET_COUNT) % HALF_COUNT + HALF_COUNT;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
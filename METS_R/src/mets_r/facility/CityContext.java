@@ -1,16 +1,27 @@
 package mets_r.facility;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.geotools.referencing.GeodeticCalculator;
 
@@ -21,6 +32,7 @@ import com.vividsolutions.jts.geom.Point;
 
 import mets_r.*;
 import mets_r.data.input.SumoXML;
+import mets_r.routing.CandidateRouteStore;
 import mets_r.routing.RouteContext;
 
 import repast.simphony.context.DefaultContext;
@@ -67,15 +79,11 @@ public class CityContext extends DefaultContext<Object> {
 		this.addSubContext(new ChargingStationContext());
 	}
 	
-	// Calculate the length of each length based on their geometries
+	// Calculate the length of each lane and its segments based on their geometries
 	private void initializeLaneDistance() {
 		for (Lane lane : ContextCreator.getLaneGeography().getAllObjects()) {
 			Coordinate[] coords = ContextCreator.getLaneGeography().getGeometry(lane).getCoordinates();
-			double distance = 0;
-			for (int i = 0; i < coords.length - 1; i++) {
-				distance += getDistance(coords[i], coords[i + 1]);
-			}
-			lane.setLength(distance);
+			lane.setSegments(coords);
 		}
 	}
 	
@@ -522,12 +530,10 @@ public class CityContext extends DefaultContext<Object> {
 				
 		for (Road road : ContextCreator.getRoadContext().getAll()) {
 			if(road.updateTravelTimeEstimation()) {
-				Node node1 = road.getUpStreamNode();
-				Node node2 = road.getDownStreamNode();
-				ContextCreator.getRoadNetwork().getEdge(node1, node2).setWeight(road.getTravelTime());
-				RouteContext.setEdgeWeight(node1, node2, road.getTravelTime());
+				RouteContext.setRoadWeight(road, road.getTravelTime());
 			}
 		}
+		RouteContext.updateEngineWeights();
 	}
 
 	public int getRoadIDFromEdge(RepastEdge<Node> edge) {
@@ -754,12 +760,37 @@ public class CityContext extends DefaultContext<Object> {
 
 	public void refreshTravelTime() {
 		ContextCreator.logger.info("Update the estimation of travel time...");
+		long startTime = System.currentTimeMillis();
 		// Reset the travel time and travel distance estimation
 		for (Zone z1 : ContextCreator.getZoneContext().getAll()) {
 			z1.busTravelTime.clear();
 			z1.busTravelDistance.clear();
 			z1.nearestZoneWithBus.clear();
 		}
+		// Find the distinct stop-to-stop legs of all routes, in the order they are used below
+		HashMap<Long, Integer> legIndex = new HashMap<Long, Integer>();
+		List<int[]> legs = new ArrayList<int[]>();
+		for (List<Integer> route : ContextCreator.bus_schedule.getBusSchedule()) {
+			for (int shift = 0; shift < route.size(); shift++) {
+				if (ContextCreator.getZoneContext().HUB_INDEXES.contains(route.get(shift))) {
+					int z1 = route.get(shift);
+					for (int i = 1; i < route.size(); i++) {
+						int j = shift + i >= route.size() ? shift + i - route.size() : shift + i;
+						this.addBusLeg(z1, route.get(j), legIndex, legs);
+						z1 = route.get(j);
+					}
+					int z2 = route.get(shift);
+					for (int i = route.size() - 1; i > 0; i--) {
+						int j = shift + i >= route.size() ? shift + i - route.size() : shift + i;
+						this.addBusLeg(route.get(j), z2, legIndex, legs);
+						z2 = route.get(j);
+					}
+				}
+			}
+		}
+		double[][] legValues = this.computeBusLegs(legs);
+
+		// Sum up the legs in the order of the stations, so the result does not depend on the threads
 		for (List<Integer> route : ContextCreator.bus_schedule.getBusSchedule()) {
 			// Retrieve stations in order, from hub to other places
 			double travel_distance = 0;
@@ -774,13 +805,9 @@ public class CityContext extends DefaultContext<Object> {
 					for (int i = 1; i < route.size(); i++) {
 						int j = shift + i >= route.size() ? shift + i - route.size() : shift + i;
 						z2 = ContextCreator.getZoneContext().get(route.get(j));
-						List<Road> path = RouteContext.shortestPathRoute(z1.getCoord(), z2.getCoord(), null);
-						if (path != null) {
-							for (Road r : path) {
-								travel_distance += r.getLength();
-								travel_time += r.getTravelTime();
-							}
-						}
+						double[] leg = legValues[legIndex.get(packZonePair(z1.getIntegerID(), z2.getIntegerID()))];
+						travel_distance += leg[0];
+						travel_time += leg[1];
 						if (hub.busTravelDistance.containsKey(z2.getIntegerID())) {
 							hub.busTravelDistance.put(z2.getIntegerID(),
 									Math.min(hub.busTravelDistance.get(z2.getIntegerID()), (float) travel_distance));
@@ -801,13 +828,9 @@ public class CityContext extends DefaultContext<Object> {
 					for (int i = route.size() - 1; i > 0; i--) {
 						int j = shift + i >= route.size() ? shift + i - route.size() : shift + i;
 						z1 = ContextCreator.getZoneContext().get(route.get(j));
-						List<Road> path = RouteContext.shortestPathRoute(z1.getCoord(), z2.getCoord(), null);
-						if (path != null) {
-							for (Road r : path) {
-								travel_distance += r.getLength();
-								travel_time += r.getTravelTime();
-							}
-						}
+						double[] leg = legValues[legIndex.get(packZonePair(z1.getIntegerID(), z2.getIntegerID()))];
+						travel_distance += leg[0];
+						travel_time += leg[1];
 						if (z1.busTravelDistance.containsKey(hub.getIntegerID())) {
 							z1.busTravelDistance.put(hub.getIntegerID(),
 									Math.min(z1.busTravelDistance.get(hub.getIntegerID()), (float) travel_distance));
@@ -824,108 +847,299 @@ public class CityContext extends DefaultContext<Object> {
 				}
 			}
 		}
+		ContextCreator.logger.info("Travel time of " + legs.size() + " bus legs updated in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	private static long packZonePair(int z1, int z2) {
+		return ((long) z1 << 32) | (z2 & 0xFFFFFFFFL);
+	}
+
+	private void addBusLeg(int z1, int z2, HashMap<Long, Integer> legIndex, List<int[]> legs) {
+		long key = packZonePair(z1, z2);
+		if (!legIndex.containsKey(key)) {
+			legIndex.put(key, legs.size());
+			legs.add(new int[] { z1, z2 });
+		}
+	}
+
+	/**
+	 * Length and travel time of the shortest path of each bus leg, computed in
+	 * parallel on the refresh threads with the routing engine of each thread
+	 * @param legs Origin and destination zone of each leg
+	 * @return double[][] Travel distance and travel time of each leg, 0 if there is no path
+	 */
+	private double[][] computeBusLegs(List<int[]> legs) {
+		double[][] legValues = new double[legs.size()][2];
+		if (legs.isEmpty()) return legValues;
+		// Resolve the roads of the legs here, the road lookup is not thread-safe
+		Road[] originRoads = new Road[legs.size()];
+		Road[] destRoads = new Road[legs.size()];
+		for (int n = 0; n < legs.size(); n++) {
+			originRoads[n] = this.findRoadAtCoordinates(ContextCreator.getZoneContext().get(legs.get(n)[0]).getCoord(), false);
+			destRoads[n] = this.findRoadAtCoordinates(ContextCreator.getZoneContext().get(legs.get(n)[1]).getCoord(), true);
+		}
+		int threadNum = Math.min(legs.size(), Runtime.getRuntime().availableProcessors());
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < threadNum; t++) {
+			final int first = t;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					// Each leg is written by exactly one task
+					for (int n = first; n < legs.size(); n += threadNum) {
+						List<Road> path = RouteContext.shortestPathRoute(originRoads[n], destRoads[n], null);
+						if (path != null) {
+							for (Road r : path) {
+								legValues[n][0] += r.getLength();
+								legValues[n][1] += r.getTravelTime();
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		RouteContext.runRefreshTasks(tasks);
+		return legValues;
 	}
 	
 	// Create eco-routing candidate path set
-	@SuppressWarnings("unchecked")
 	public void createUCBRoutes() {
 		this.modifyRoadNetwork(); // This initializes data for path calculation, DO NOT remove it
-		try { // First try to read from the file. If the file does not exist, then create it.
-			FileInputStream fileIn = new FileInputStream("data/NYC/candidate_routes.ser");
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-			ContextCreator.route_UCB = (HashMap<String, List<List<Integer>>>) in.readObject();
-			ContextCreator.logger.info("Serialized data is loaded from data/candidate_routes.ser");
-			in.close();
-			fileIn.close();
-		} catch (FileNotFoundException i) {
-			ContextCreator.logger.info("Candidate routes initialization ...");
-			// Loop over all OD pairs, will take several hours
-			for (Zone origin : ContextCreator.getZoneContext().getAll()) {
-				for (Zone destination : ContextCreator.getZoneContext().getAll()) {
-					if (origin.getIntegerID() != destination.getIntegerID()
-							&& (ContextCreator.getZoneContext().HUB_INDEXES.contains(origin.getIntegerID())
-									|| ContextCreator.getZoneContext().HUB_INDEXES
-											.contains(destination.getIntegerID()))) {
-						ContextCreator.logger
-								.info("Creating routes: " + origin.getIntegerID() + "," + destination.getIntegerID());
-						try {
-							List<List<Integer>> candidate_routes = RouteContext.UCBRoute(origin.getCoord(),
-									destination.getCoord());
-							ContextCreator.route_UCB.put(
-									Integer.toString(origin.getIntegerID()) + "," + destination.getIntegerID(),
-									candidate_routes);
-						} catch (Exception e) {
-							e.printStackTrace();
+		CandidateRouteStore store = this.loadUCBRoutes("data/NYC/candidate_routes", true);
+		if (store != null) {
+			store.initCosts(roadID -> RouteContext.getRoadWeight(roadID));
+			ContextCreator.route_UCB = store;
+			ContextCreator.isRouteUCBPopulated = true;
+		}
+	}
+
+	// Create Bus eco-routing candidate path set
+	public void createUCBBusRoutes() {
+		CandidateRouteStore store = this.loadUCBRoutes("data/NYC/candidate_routes_bus", false);
+		if (store != null) {
+			store.initCosts(roadID -> RouteContext.getRoadWeight(roadID));
+			ContextCreator.route_UCB_bus = store;
+			ContextCreator.isRouteUCBBusPopulated = true;
+		}
+	}
+
+	/**
+	 * Load the candidate routes from the binary file. If it does not exist, the
+	 * routes are converted from the legacy serialized file or created, and saved
+	 * in the binary file.
+	 * 
+	 * @param filePrefix Path of the files without extension
+	 * @param hubOnly Whether only the OD pairs from or to a hub are needed
+	 * @return CandidateRouteStore null if the routes cannot be loaded, created or saved
+	 */
+	@SuppressWarnings("unchecked")
+	private CandidateRouteStore loadUCBRoutes(String filePrefix, boolean hubOnly) {
+		String binFile = filePrefix + ".bin";
+		String serFile = filePrefix + ".ser";
+		String checkpointFile = filePrefix + ".checkpoint";
+		CandidateRouteStore store = null;
+		try {
+			if (new File(binFile).exists()) { // First try to read from the binary file
+				long startTime = System.currentTimeMillis();
+				store = CandidateRouteStore.load(binFile);
+				ContextCreator.logger.info("Candidate routes are loaded from " + binFile + " in "
+						+ (System.currentTimeMillis() - startTime) + " ms, " + store.size() + " OD pairs, "
+						+ store.getByteSize() / 1024 + " KB");
+				return store;
+			}
+			if (new File(serFile).exists()) { // Convert the routes saved by the older versions
+				long startTime = System.currentTimeMillis();
+				FileInputStream fileIn = new FileInputStream(serFile);
+				ObjectInputStream in = new ObjectInputStream(fileIn);
+				HashMap<String, List<List<Integer>>> routes = (HashMap<String, List<List<Integer>>>) in.readObject();
+				in.close();
+				fileIn.close();
+				ContextCreator.logger.info("Serialized data is loaded from " + serFile + " in "
+						+ (System.currentTimeMillis() - startTime) + " ms");
+				HashMap<Long, List<List<Integer>>> packedRoutes = new HashMap<Long, List<List<Integer>>>();
+				for (String od : routes.keySet()) {
+					String[] ids = od.split(",");
+					packedRoutes.put(CandidateRouteStore.packOD(Integer.parseInt(ids[0].trim()),
+							Integer.parseInt(ids[1].trim())), routes.get(od));
+				}
+				store = new CandidateRouteStore(packedRoutes);
+			} else {
+				ContextCreator.logger.info("Candidate routes initialization ...");
+				// Loop over all OD pairs, will take several hours
+				List<Zone> zones = new ArrayList<Zone>(ContextCreator.getZoneContext().getAll());
+				List<int[]> pairs = new ArrayList<int[]>();
+				for (int m = 0; m < zones.size(); m++) {
+					for (int n = 0; n < zones.size(); n++) {
+						Zone origin = zones.get(m);
+						Zone destination = zones.get(n);
+						if (origin.getIntegerID() != destination.getIntegerID() && (!hubOnly
+								|| ContextCreator.getZoneContext().HUB_INDEXES.contains(origin.getIntegerID())
+								|| ContextCreator.getZoneContext().HUB_INDEXES.contains(destination.getIntegerID()))) {
+							pairs.add(new int[] { m, n });
 						}
 					}
 				}
+				store = this.computeUCBRoutes(zones, pairs, checkpointFile);
+				if (store == null) return null; // Interrupted, the checkpoint is kept for the next run
 			}
-			try {
-				FileOutputStream fileOut = new FileOutputStream("data/NYC/candidate_routes.ser");
-				ObjectOutputStream out = new ObjectOutputStream(fileOut);
-				out.writeObject(ContextCreator.route_UCB);
-				out.close();
-				fileOut.close();
-				ContextCreator.logger.info("Serialized data is saved in data/candidate_routes.ser");
-			} catch (IOException o) {
-				o.printStackTrace();
-				return;
-			}
+			store.save(binFile);
+			new File(checkpointFile).delete();
+			ContextCreator.logger.info("Candidate routes are saved in " + binFile);
 		} catch (ClassNotFoundException c) {
 			c.printStackTrace();
-			return;
+			return null;
 		} catch (IOException o) {
 			o.printStackTrace();
-			return;
+			return null;
 		}
-		ContextCreator.isRouteUCBPopulated = true;
+		return store;
 	}
 
-	// Create Bus eco-routing candidate path set
-	@SuppressWarnings("unchecked")
-	public void createUCBBusRoutes() {
-		try { // First try to read from the file. If the file does not exist, then create it.
-			FileInputStream fileIn = new FileInputStream("data/NYC/candidate_routes_bus.ser");
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-			ContextCreator.route_UCB_bus = (HashMap<String, List<List<Integer>>>) in.readObject();
-			ContextCreator.logger.info("Serialized data is loaded from data/candidate_routes_bus.ser");
-			in.close();
-			fileIn.close();
-		} catch (FileNotFoundException i) {
-			ContextCreator.logger.info("Candidate routes initialization ...");
-			for (Zone origin : ContextCreator.getZoneContext().getAll()) {
-				for (Zone destination : ContextCreator.getZoneContext().getAll()) {
-					if (origin.getIntegerID() != destination.getIntegerID()) {
-						ContextCreator.logger
-								.info("Creating routes: " + origin.getIntegerID() + "," + destination.getIntegerID());
-						try {
-							ContextCreator.route_UCB_bus.put(
-									Integer.toString(origin.getIntegerID()) + "," + destination.getIntegerID(),
-									RouteContext.UCBRoute(origin.getCoord(), destination.getCoord()));
-						} catch (Exception e) {
-							e.printStackTrace();
+	/**
+	 * Compute the candidate routes of the OD pairs on all cores.
+	 * 
+	 * The routes of each OD pair are appended to the checkpoint file as soon as
+	 * they are found, and the pairs already in the checkpoint file are skipped,
+	 * so an interrupted run resumes where it stopped. The result does not depend
+	 * on the order in which the pairs are finished.
+	 * 
+	 * @param zones Zones referred by the pairs
+	 * @param pairs OD pairs as the indexes of the origin and destination zones
+	 * @param checkpointFile Path of the checkpoint file
+	 * @return CandidateRouteStore candidate routes of the pairs, null if interrupted
+	 * @throws IOException if the checkpoint cannot be written or a pair fails unexpectedly
+	 */
+	private CandidateRouteStore computeUCBRoutes(List<Zone> zones, List<int[]> pairs,
+			String checkpointFile) throws IOException {
+		// Resolve the roads of the zones here, the road lookup is not thread-safe
+		Road[] originRoads = new Road[zones.size()];
+		Road[] destRoads = new Road[zones.size()];
+		for (int i = 0; i < zones.size(); i++) {
+			originRoads[i] = this.findRoadAtCoordinates(zones.get(i).getCoord(), false);
+			destRoads[i] = this.findRoadAtCoordinates(zones.get(i).getCoord(), true);
+		}
+
+		HashMap<String, List<List<Integer>>> checkpoint = this.readRouteCheckpoint(checkpointFile);
+		@SuppressWarnings("unchecked")
+		List<List<Integer>>[] routes = new List[pairs.size()];
+		List<Integer> toCompute = new ArrayList<Integer>();
+		for (int k = 0; k < pairs.size(); k++) {
+			String key = zones.get(pairs.get(k)[0]).getIntegerID() + "," + zones.get(pairs.get(k)[1]).getIntegerID();
+			if (checkpoint.containsKey(key)) {
+				routes[k] = checkpoint.get(key);
+			} else {
+				toCompute.add(k);
+			}
+		}
+		ContextCreator.logger.info("Candidate routes: " + (pairs.size() - toCompute.size()) + " OD pairs loaded from "
+				+ checkpointFile + ", " + toCompute.size() + " OD pairs to compute");
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executor);
+		for (int k : toCompute) {
+			final int pair = k;
+			completionService.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					Zone origin = zones.get(pairs.get(pair)[0]);
+					Zone destination = zones.get(pairs.get(pair)[1]);
+					try {
+						routes[pair] = RouteContext.UCBRoute(originRoads[pairs.get(pair)[0]],
+								destRoads[pairs.get(pair)[1]]);
+					} catch (Exception e) {
+						ContextCreator.logger.error("Cannot create routes: " + origin.getIntegerID() + ","
+								+ destination.getIntegerID());
+						e.printStackTrace();
+					}
+					return pair;
+				}
+			});
+		}
+
+		long startTime = System.currentTimeMillis();
+		long lastReportTime = startTime;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(checkpointFile, true)))) {
+			for (int done = 1; done <= toCompute.size(); done++) {
+				int k = completionService.take().get();
+				if (routes[k] != null) {
+					out.writeInt(zones.get(pairs.get(k)[0]).getIntegerID());
+					out.writeInt(zones.get(pairs.get(k)[1]).getIntegerID());
+					out.writeInt(routes[k].size());
+					for (List<Integer> route : routes[k]) {
+						out.writeInt(route.size());
+						for (int roadID : route) {
+							out.writeInt(roadID);
 						}
 					}
+					out.flush();
+				}
+				long now = System.currentTimeMillis();
+				if (now - lastReportTime >= 30000 || done == toCompute.size()) {
+					lastReportTime = now;
+					double eta = (now - startTime) / 1000.0 * (toCompute.size() - done) / done;
+					ContextCreator.logger.info("Candidate routes: " + done + "/" + toCompute.size()
+							+ " OD pairs created, ETA: " + String.format("%.0f", eta) + " s");
 				}
 			}
-			try {
-				FileOutputStream fileOut = new FileOutputStream("data/NYC/candidate_routes_bus.ser");
-				ObjectOutputStream out = new ObjectOutputStream(fileOut);
-				out.writeObject(ContextCreator.route_UCB_bus);
-				out.close();
-				fileOut.close();
-				ContextCreator.logger.info("Serialized data is saved in data/candidate_routes_bus.ser");
-			} catch (IOException o) {
-				o.printStackTrace();
-				return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			ContextCreator.logger.error("Candidate routes interrupted, the OD pairs created so far are kept in "
+					+ checkpointFile);
+			return null;
+		} catch (ExecutionException e) {
+			throw new IOException("Cannot create candidate routes", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		HashMap<Long, List<List<Integer>>> result = new HashMap<Long, List<List<Integer>>>();
+		for (int k = 0; k < pairs.size(); k++) {
+			if (routes[k] != null) {
+				result.put(CandidateRouteStore.packOD(zones.get(pairs.get(k)[0]).getIntegerID(),
+						zones.get(pairs.get(k)[1]).getIntegerID()), routes[k]);
 			}
-		} catch (ClassNotFoundException c) {
-			c.printStackTrace();
-			return;
-		} catch (IOException o) {
-			o.printStackTrace();
-			return;
 		}
-		ContextCreator.isRouteUCBBusPopulated = true;
+		return new CandidateRouteStore(result);
+	}
+
+	// Load the candidate routes saved by computeUCBRoutes, an incomplete last record is dropped
+	private HashMap<String, List<List<Integer>>> readRouteCheckpoint(String checkpointFile) {
+		HashMap<String, List<List<Integer>>> checkpoint = new HashMap<String, List<List<Integer>>>();
+		if (!new File(checkpointFile).exists()) return checkpoint;
+		long validLength = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+			while (true) {
+				int origin = in.readInt();
+				int destination = in.readInt();
+				int routeNum = in.readInt();
+				List<List<Integer>> routes = new ArrayList<List<Integer>>(routeNum);
+				long length = 12;
+				for (int i = 0; i < routeNum; i++) {
+					int roadNum = in.readInt();
+					List<Integer> route = new ArrayList<Integer>(roadNum);
+					for (int j = 0; j < roadNum; j++) {
+						route.add(in.readInt());
+					}
+					routes.add(route);
+					length += 4 + 4L * roadNum;
+				}
+				checkpoint.put(origin + "," + destination, routes);
+				validLength += length;
+			}
+		} catch (EOFException e) {
+			// End of the checkpoint
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		// Cut the incomplete record so that new records are appended right after the valid ones
+		try (RandomAccessFile file = new RandomAccessFile(checkpointFile, "rw")) {
+			file.setLength(validLength);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return checkpoint;
 	}
 }
@@ -1,6 +1,7 @@
 package mets_r.facility;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -25,6 +26,12 @@ public class Lane {
 	private int index;
 	private ArrayList<Coordinate> coords;
 	private double length;
+	// Lane geometry as primitive arrays, fixed once the network is loaded
+	private double[] coordX;
+	private double[] coordY;
+	private double[] cumDistance; // Distance from the start of the lane to each point
+	private double[] segmentLength; // Length of each segment of the lane geometry
+	private double[] segmentAzimuth; // Azimuth of each segment of the lane geometry, in degrees
 	
 	// Connection with other facilities
 	private ArrayList<Integer> upStreamLanes;// Upstream lanes that connect to this
@@ -35,6 +42,9 @@ public class Lane {
 	private AtomicInteger nVehicles_; // Number of vehicle in the lane
 	private Vehicle firstVehicle_; // The first vehicle on a lane
 	private Vehicle lastVehicle_; // The last vehicle vehicle on a lane
+	private Vehicle[] vehicleOrder; // Vehicles on the lane from the first to the last one, from orderHead on
+	private int orderHead; // Slot of the first vehicle, so the first vehicle leaves without shifting the others
+	private int orderSize; // Number of vehicles in vehicleOrder
 	private AtomicInteger lastEnterTick; // Store the latest enter time of vehicles
 	private Random rand; // Random seed for lane changing
 	private double freeSpeed_; // Target speed for vehicles on this lane
@@ -45,6 +55,9 @@ public class Lane {
 		this.rand = new Random(GlobalVariables.RandomGenerator.nextInt());
 		this.nVehicles_ = new AtomicInteger(0);
 		this.lastVehicle_ = null;
+		this.vehicleOrder = new Vehicle[8];
+		this.orderHead = 0;
+		this.orderSize = 0;
 		this.upStreamLanes = new ArrayList<Integer>();
 		this.downStreamLanes = new ArrayList<Integer>();
 		this.lastEnterTick = new AtomicInteger(-1);
@@ -78,6 +91,57 @@ public class Lane {
 	public void setLength(double length) {
 		this.length = length;
 	}
+	
+	/**
+	 * Precompute the points, cumulative distances, and the length and azimuth of
+	 * each segment of the lane geometry, and set the lane length as their sum
+	 * @param coords Coordinates of the lane geometry
+	 */
+	public void setSegments(Coordinate[] coords) {
+		this.coordX = new double[coords.length];
+		this.coordY = new double[coords.length];
+		this.cumDistance = new double[coords.length];
+		this.segmentLength = new double[Math.max(coords.length - 1, 0)];
+		this.segmentAzimuth = new double[Math.max(coords.length - 1, 0)];
+		double[] distAndAngle = new double[2];
+		double distance = 0;
+		for (int i = 0; i < coords.length; i++) {
+			this.coordX[i] = coords[i].x;
+			this.coordY[i] = coords[i].y;
+			this.cumDistance[i] = distance;
+			if (i < coords.length - 1) {
+				Geodesy.distanceAndAzimuth(coords[i], coords[i + 1], distAndAngle);
+				this.segmentLength[i] = distAndAngle[0];
+				this.segmentAzimuth[i] = distAndAngle[1];
+				distance += distAndAngle[0];
+			}
+		}
+		this.length = distance;
+	}
+	
+	public int getCoordNum() {
+		return this.coordX.length;
+	}
+	
+	public double getCoordX(int i) {
+		return this.coordX[i];
+	}
+	
+	public double getCoordY(int i) {
+		return this.coordY[i];
+	}
+	
+	public double getCumDistance(int i) {
+		return this.cumDistance[i];
+	}
+	
+	public double getSegmentLength(int i) {
+		return this.segmentLength[i];
+	}
+	
+	public double getSegmentAzimuth(int i) {
+		return this.segmentAzimuth[i];
+	}
 
 	public double getLength() {
 		return length;
@@ -121,6 +185,165 @@ public class Lane {
 
 	}
 
+	/**
+	 * Insert v right behind leadVehicle in the ordered vehicle list, or at the
+	 * front if leadVehicle is null
+	 */
+	public void insertVehicle(Vehicle v, Vehicle leadVehicle) {
+		int index = 0;
+		if (leadVehicle != null) {
+			index = this.indexOfVehicle(leadVehicle) + 1;
+		}
+		this.insertVehicleAt(index, v);
+	}
+
+	/**
+	 * Set the distance of v from outside (e.g., the co-simulation) and move it in
+	 * the ordered vehicle list and the linked list of the lane to keep them sorted
+	 * by distance fraction. v keeps its place if it is still between its
+	 * neighbors, otherwise it goes behind the vehicles with the same fraction
+	 * when it moves forward, as advanceInMacroList does, and ahead of them when it
+	 * moves backward
+	 */
+	public void moveVehicle(Vehicle v, double dist) {
+		int index = this.indexOfVehicle(v);
+		if (index < 0) {
+			v.setDistance(dist);
+			return;
+		}
+		this.removeVehicleAt(index);
+		v.setDistance(dist);
+		double frac = v.distFraction();
+		int lo = 0;
+		int hi = this.orderSize;
+		if (index > 0 && this.getVehicle(index - 1).distFraction() > frac) {
+			hi = index - 1;
+			while (lo < hi) { // First vehicle with a larger fraction
+				int mid = (lo + hi) >>> 1;
+				if (this.getVehicle(mid).distFraction() <= frac) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+		} else if (index < this.orderSize && this.getVehicle(index).distFraction() < frac) {
+			lo = index + 1;
+			while (lo < hi) { // First vehicle with the same or a larger fraction
+				int mid = (lo + hi) >>> 1;
+				if (this.getVehicle(mid).distFraction() < frac) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+		} else {
+			lo = index;
+		}
+		this.insertVehicleAt(lo, v);
+		if (lo != index) {
+			// Take v out of the linked list and put it between its new neighbors
+			Vehicle leadVehicle = v.leading();
+			Vehicle lagVehicle = v.trailing();
+			if (leadVehicle != null) {
+				leadVehicle.trailing(lagVehicle);
+			} else {
+				this.firstVehicle_ = lagVehicle;
+			}
+			if (lagVehicle != null) {
+				lagVehicle.leading(leadVehicle);
+			} else {
+				this.lastVehicle_ = leadVehicle;
+			}
+			leadVehicle = lo > 0 ? this.getVehicle(lo - 1) : null;
+			lagVehicle = lo + 1 < this.orderSize ? this.getVehicle(lo + 1) : null;
+			v.leading(leadVehicle);
+			v.trailing(lagVehicle);
+			if (leadVehicle != null) {
+				leadVehicle.trailing(v);
+			} else {
+				this.firstVehicle_ = v;
+			}
+			if (lagVehicle != null) {
+				lagVehicle.leading(v);
+			} else {
+				this.lastVehicle_ = v;
+			}
+		}
+	}
+
+	public void removeVehicle(Vehicle v) {
+		int index = this.indexOfVehicle(v);
+		if (index >= 0) {
+			this.removeVehicleAt(index);
+		}
+	}
+
+	// The i-th vehicle from the front of the lane, i is less than nVehicles()
+	public Vehicle getVehicle(int i) {
+		return this.vehicleOrder[this.orderHead + i];
+	}
+
+	private void removeVehicleAt(int index) {
+		if (index == 0) { // The first vehicle leaves the lane, move the head
+			this.vehicleOrder[this.orderHead] = null;
+			this.orderHead = (this.orderSize == 1) ? 0 : this.orderHead + 1;
+		} else {
+			int slot = this.orderHead + index;
+			System.arraycopy(this.vehicleOrder, slot + 1, this.vehicleOrder, slot, this.orderSize - index - 1);
+			this.vehicleOrder[this.orderHead + this.orderSize - 1] = null;
+		}
+		this.orderSize--;
+	}
+
+	private void insertVehicleAt(int index, Vehicle v) {
+		if (index == 0 && this.orderHead > 0) { // Use the free slot before the head
+			this.vehicleOrder[--this.orderHead] = v;
+			this.orderSize++;
+			return;
+		}
+		if (this.orderHead + this.orderSize == this.vehicleOrder.length) {
+			// No slot left at the end, move the vehicles to the start and grow if more than half full
+			Vehicle[] order = this.orderSize * 2 >= this.vehicleOrder.length
+					? new Vehicle[this.vehicleOrder.length * 2] : this.vehicleOrder;
+			System.arraycopy(this.vehicleOrder, this.orderHead, order, 0, this.orderSize);
+			if (order == this.vehicleOrder) {
+				Arrays.fill(order, this.orderSize, order.length, null);
+			}
+			this.vehicleOrder = order;
+			this.orderHead = 0;
+		}
+		int slot = this.orderHead + index;
+		System.arraycopy(this.vehicleOrder, slot, this.vehicleOrder, slot + 1, this.orderSize - index);
+		this.vehicleOrder[slot] = v;
+		this.orderSize++;
+	}
+
+	private int indexOfVehicle(Vehicle v) {
+		int n = this.orderSize;
+		if (n == 0) return -1;
+		if (this.getVehicle(n - 1) == v) return n - 1;
+		if (this.getVehicle(0) == v) return 0;
+		// Vehicles are sorted by their distance fraction, search the group that has the same fraction as v
+		double frac = v.distFraction();
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.getVehicle(mid).distFraction() < frac) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		for (int i = lo; i < n && this.getVehicle(i).distFraction() <= frac; i++) {
+			if (this.getVehicle(i) == v) return i;
+		}
+		for (int i = 0; i < n; i++) { // Fall back to the linear search
+			if (this.getVehicle(i) == v) return i;
+		}
+		return -1;
+	}
+
 	public void setSpeed(double speed) {
 		this.freeSpeed_ = speed;
 	}
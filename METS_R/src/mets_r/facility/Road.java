@@ -69,6 +69,7 @@ public class Road {
 	private double speedLimit_; // Speed for travel time estimation
 	private double cachedSpeedLimit_; // For caching the speed before certain regulation events
 	private ConcurrentLinkedQueue<Double> travelTimeHistory_; 
+	private ArrayList<Vehicle> movingVehicles; // Vehicles to move in the current tick, reused across ticks
 	
 	// For parallel computing
 	private int nShadowVehicles; // Potential vehicles might be loaded on the road
@@ -91,6 +92,7 @@ public class Road {
 		this.lastUpdateHour = -1;
 		this.travelTime =  this.length / this.speedLimit_;
 		this.travelTimeHistory_ = new ConcurrentLinkedQueue<Double>();
+		this.movingVehicles = new ArrayList<Vehicle>();
 		this.neighboringDepartureZone = -1;
 		this.neighboringArrivalZone = -1;
 		this.setDistToZone(Double.MAX_VALUE, false);
@@ -178,7 +180,13 @@ public class Road {
 			}
 		}
 		
-		/* Log vehicle states */
+		/* Log vehicle states and decide the vehicle movements in one pass */
+		// Each vehicle is logged before its own calcState, and calcState only changes the state
+		// of the vehicle itself, so the logged states are the same as logging all vehicles first
+		boolean coSim = this.getControlType() == Road.CoSim;
+		if (coSim) {
+			ContextCreator.logger.debug("Skipped vehicle movements for the coSim road with origin ID: " + this.getOrigID());
+		}
 		Vehicle currentVehicle = this.firstVehicle();
 		while (currentVehicle != null) {
 			Vehicle nextVehicle = currentVehicle.macroTrailing();
@@ -187,35 +195,26 @@ public class Road {
 				currentVehicle.recVehSnaphotForVisInterp(); // Note vehicle can be killed after calling pv.travel,
 															// so we record vehicle location here!
 			}
-			currentVehicle = nextVehicle;
-		}
-
-		/* Vehicle movement */
-		if(this.getControlType() == Road.CoSim) {
-			ContextCreator.logger.debug("Skipped vehicle movements for the coSim road with origin ID: " + this.getOrigID());
-		}
-		else {
-			currentVehicle = this.firstVehicle();
 			// happened at time t, deciding acceleration and lane changing
-			while (currentVehicle != null) {
-				Vehicle nextVehicle = currentVehicle.macroTrailing();
-				if (tickcount> currentVehicle.getAndSetLastVisitTick(tickcount)) {
+			if (!coSim) {
+				if (tickcount > currentVehicle.getAndSetLastVisitTick(tickcount)) {
 					currentVehicle.calcState();
 				}
-				currentVehicle = nextVehicle;
+				this.movingVehicles.add(currentVehicle);
 			}
-	
-			// happened during time t to t + 1, conducting vehicle movements
-			currentVehicle = this.firstVehicle();
-			while (currentVehicle != null) {
-				Vehicle nextVehicle = currentVehicle.macroTrailing();
-				if ((tickcount == currentVehicle.getLastVisitTick()) && (tickcount > currentVehicle.getAndSetLastMoveTick(tickcount))) { // vehicle has not been visited yet
-					currentVehicle.move();
-					currentVehicle.updateBatteryLevel(); // Update the energy for each move
-				}
-				currentVehicle = nextVehicle;
+			currentVehicle = nextVehicle;
+		}
+
+		// happened during time t to t + 1, conducting vehicle movements after all decisions are made,
+		// in the same order as the macro list was walked above
+		for (int i = 0; i < this.movingVehicles.size(); i++) {
+			currentVehicle = this.movingVehicles.get(i);
+			if ((tickcount == currentVehicle.getLastVisitTick()) && (tickcount > currentVehicle.getAndSetLastMoveTick(tickcount))) { // vehicle has not been visited yet
+				currentVehicle.move();
+				currentVehicle.updateBatteryLevel(); // Update the energy for each move
 			}
 		}
+		this.movingVehicles.clear();
 	}
 	
 	/**
@@ -244,7 +243,8 @@ public class Road {
 //						return false;
 //					}
 //				}
-				veh.setDistance(dist);
+				// Set the distance and keep the vehicles of the lane sorted
+				lane.moveVehicle(veh, dist);
 				// Move veh to the x and y location
 				veh.setCurrentCoord(new Coordinate(x, y));
 				// Advance vehicle in the lane
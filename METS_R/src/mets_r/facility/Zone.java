@@ -25,11 +25,13 @@ import com.vividsolutions.jts.geom.Coordinate;
 
 import mets_r.ContextCreator;
 import mets_r.GlobalVariables;
+import mets_r.data.input.OriginDemand;
 import mets_r.mobility.ElectricTaxi;
 import mets_r.mobility.ElectricVehicle;
 import mets_r.mobility.Plan;
 import mets_r.mobility.Request;
 import mets_r.mobility.Vehicle;
+import mets_r.routing.HubTravelTimes;
 import mets_r.routing.RouteContext;
 
 public class Zone {
@@ -301,142 +303,133 @@ public class Zone {
 		if (this.lastDemandUpdateHour != this.currentHour) {
 			this.futureDemand = 0.0;
 		}
-		for (Zone destZone : ContextCreator.getZoneContext().getAll()) {
-			int destination = destZone.getIntegerID();
-			double passRate = ContextCreator.travel_demand.getPublicTravelDemand(this.getIntegerID(), destination, this.currentHour)
-					* (GlobalVariables.SIMULATION_ZONE_REFRESH_INTERVAL
-							/ (3600 / GlobalVariables.SIMULATION_STEP_SIZE));
-		    
-			if (passRate > 0) {
-				passRate *= GlobalVariables.RH_DEMAND_FACTOR;
-				double numToGenerate = Math.floor(passRate)
-						+ (rand_demand_only.nextDouble() < (passRate - Math.floor(passRate)) ? 1 : 0);
-				double sharableRate = ContextCreator.travel_demand.getPublicTravelDemand(this.getIntegerID(), destination, this.currentHour);
-				if (busReachableZone.contains(destination)) {
-					// No combinational mode like taxi-bus or bus-taxi
-					float threshold = getSplitRatio(destination, false);
-					for (int i = 0; i < numToGenerate; i++) {
-						if (rand_mode_only.nextDouble() > threshold) {
-							if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
-								Request new_pass = new Request(this.ID, destination, this.getCoord(), 
-										destZone.sampleCoord(true), true
-										); 
-								this.addSharableTaxiPass(new_pass, destination);
+		OriginDemand demand = ContextCreator.travel_demand.getPublicOriginDemand(this.getIntegerID(), this.currentHour);
+		if (demand != null) {
+			double scale = GlobalVariables.SIMULATION_ZONE_REFRESH_INTERVAL
+					/ (3600 / GlobalVariables.SIMULATION_STEP_SIZE) * GlobalVariables.RH_DEMAND_FACTOR;
+			// Draw the number of requests from this zone, then the destination of each request
+			int[] sampled = new int[demand.sampleRequestNum(scale, rand_demand_only)];
+			for (int i = 0; i < sampled.length; i++) {
+				sampled[i] = demand.sampleDestination(rand_demand_only);
+			}
+			Arrays.sort(sampled);
+			int i = 0;
+			while (i < sampled.length) {
+				int k = sampled[i];
+				int numToGenerate = 0;
+				while (i < sampled.length && sampled[i] == k) {
+					numToGenerate++;
+					i++;
+				}
+				Zone destZone = ContextCreator.getZoneContext().get(demand.getDestination(k));
+				if (destZone != null) {
+					this.generatePassenger(destZone, numToGenerate, demand.getRate(k));
+				}
+			}
+			if (this.lastDemandUpdateHour != this.currentHour) {
+				if (GlobalVariables.COLLABORATIVE_EV && this.zoneType == 1) {
+					// A hub restarts the sum at each destination reached through a bus zone, so it visits the zones in their order
+					for (Zone destZone : ContextCreator.getZoneContext().getAll()) {
+						int destination = destZone.getIntegerID();
+						double passRate = ContextCreator.travel_demand.getPublicTravelDemand(this.getIntegerID(), destination, this.currentHour) * scale;
+						if (passRate > 0) {
+							if (!busReachableZone.contains(destination) && this.nearestZoneWithBus.containsKey(destination)) {
+								this.futureDemand = passRate * this.getDemandThreshold(destination);
 							} else {
-								Request new_pass = new Request(this.ID, destination, this.sampleCoord(false), 
-										destZone.sampleCoord(true), false
-										); 
-								this.addTaxiPass(new_pass);
+								this.futureDemand += passRate * this.getDemandThreshold(destination);
 							}
-							this.numberOfGeneratedTaxiRequest += 1;
-						} else { // Bus always start and end at the centroid
-							Request new_pass = new Request(this.ID, destination, this.getCoord(), 
-									ContextCreator.getZoneContext().get(destination).getCoord(), 
-									false); 
-							this.addBusPass(new_pass);
-							this.numberOfGeneratedBusRequest += 1;
 						}
 					}
-					if (this.lastDemandUpdateHour != this.currentHour) {
-						this.futureDemand+= (passRate * threshold);
-					}
-				} else if (GlobalVariables.COLLABORATIVE_EV) {
-					if (this.zoneType == 0 && this.nearestZoneWithBus.containsKey(destination)) { // Normal zone, first take taxi, then bus
-						// Split between taxi and taxi-bus combined,
-						float threshold = getSplitRatio(destination, true);
-						for (int i = 0; i < numToGenerate; i++) {
-							if (rand_mode_only.nextDouble() > threshold) {
-								if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
-									Request new_pass = new Request(this.ID, destination, this.getCoord(), 
-											destZone.sampleCoord(true),true
-											); 
-									this.addSharableTaxiPass(new_pass, destination);
-								} else {
-									Request new_pass = new Request(this.ID, destination, this.sampleCoord(false), 
-											destZone.sampleCoord(true),false
-											); 
-									this.addTaxiPass(new_pass);
-								}
-								this.numberOfGeneratedTaxiRequest += 1;
-							} 
-							else {
-								// First generate its activity plan
-								Queue<Plan> activityPlan = new LinkedList<Plan>();
-								Plan plan = new Plan(this.nearestZoneWithBus.get(destination),
-										ContextCreator.getZoneContext().get(this.nearestZoneWithBus.get(destination)).getCoord(), ContextCreator.getNextTick());
-								activityPlan.add(plan);
-								Plan plan2 = new Plan(destination,
-										ContextCreator.getZoneContext().get(destination).getCoord(),
-										ContextCreator.getNextTick());
-								activityPlan.add(plan2);
-								Request new_pass = new Request(this.ID, this.sampleCoord(false), activityPlan); 
-								this.addTaxiPass(new_pass);
-								this.numberOfGeneratedCombinedRequest += 1;
-							}
-						}
-						if (this.lastDemandUpdateHour != this.currentHour) {
-							this.futureDemand+=(passRate * threshold);
-						}
-					} else if (this.zoneType == 1 && this.nearestZoneWithBus.containsKey(destination)) { // Hub, first bus then taxi
-						// Split between taxi and taxi-bus combined,
-						float threshold = getSplitRatio(destination, true);
-						for (int i = 0; i < numToGenerate; i++) {
-							if (rand_mode_only.nextDouble() > threshold) {
-								if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
-									Request new_pass = new Request(this.ID, destination, this.getCoord(), 
-											destZone.sampleCoord(true),true
-											); 
-									this.addSharableTaxiPass(new_pass, destination);
-								} else {
-									Request new_pass = new Request(this.ID, destination, this.sampleCoord(false), 
-											destZone.sampleCoord(true),false
-											); 
-									this.addTaxiPass(new_pass);
-								}
-								this.numberOfGeneratedTaxiRequest += 1;
-							} 
-							else {
-								// First generate its activity plan
-								Queue<Plan> activityPlan = new LinkedList<Plan>();
-								Plan plan = new Plan(this.nearestZoneWithBus.get(destination),
-										ContextCreator.getZoneContext().get(this.nearestZoneWithBus.get(destination)).getCoord(), ContextCreator.getNextTick());
-								activityPlan.add(plan);
-								Plan plan2 = new Plan(destination,
-										destZone.sampleCoord(true),
-										ContextCreator.getNextTick());
-								activityPlan.add(plan2);
-								Request new_pass = new Request(this.ID, this.getCoord(), activityPlan); 
-								this.addBusPass(new_pass);
-								this.numberOfGeneratedCombinedRequest += 1;
-							}
+				} else {
+					for (int k = 0; k < demand.size(); k++) {
+						if (ContextCreator.getZoneContext().get(demand.getDestination(k)) != null) {
+							this.futureDemand += demand.getRate(k) * scale * this.getDemandThreshold(demand.getDestination(k));
 						}
-						if (this.lastDemandUpdateHour != this.currentHour) {
-							this.futureDemand= (passRate * threshold);
+					}
+				}
+			}
+		}
+		
+		this.vehicleSurplus = this.getVehicleStock() - this.nRequestForTaxi + 0.8 * this.futureSupply.get();
+		this.vehicleSurplus = this.vehicleSurplus>0?this.vehicleSurplus:0;
+		this.vehicleDeficiency = this.nRequestForTaxi - this.getVehicleStock() - ContextCreator.getVehicleContext().getRelocationTaxi(this.getID()).size();
+		this.vehicleDeficiency = this.vehicleDeficiency>0?this.vehicleDeficiency:0;
+		
+		ContextCreator.logger.debug("current buss pass is" + this.numberOfGeneratedBusRequest);
+		ContextCreator.logger.debug("current taxi pass is" + this.numberOfGeneratedTaxiRequest);
+
+		if (this.lastDemandUpdateHour != this.currentHour) {
+			this.lastDemandUpdateHour = this.currentHour;
+		}
+	}
+
+	// Generate the requests to one destination, with the mode split of the destination
+	private void generatePassenger(Zone destZone, int numToGenerate, double sharableRate) {
+		int destination = destZone.getIntegerID();
+		if (busReachableZone.contains(destination)) {
+			// No combinational mode like taxi-bus or bus-taxi
+			float threshold = getSplitRatio(destination, false);
+			for (int i = 0; i < numToGenerate; i++) {
+				if (rand_mode_only.nextDouble() > threshold) {
+					if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
+						Request new_pass = new Request(this.ID, destination, this.getCoord(), 
+								destZone.sampleCoord(true), true
+								); 
+						this.addSharableTaxiPass(new_pass, destination);
+					} else {
+						Request new_pass = new Request(this.ID, destination, this.sampleCoord(false), 
+								destZone.sampleCoord(true), false
+								); 
+						this.addTaxiPass(new_pass);
+					}
+					this.numberOfGeneratedTaxiRequest += 1;
+				} else { // Bus always start and end at the centroid
+					Request new_pass = new Request(this.ID, destination, this.getCoord(), 
+							ContextCreator.getZoneContext().get(destination).getCoord(), 
+							false); 
+					this.addBusPass(new_pass);
+					this.numberOfGeneratedBusRequest += 1;
+				}
+			}
+		} else if (GlobalVariables.COLLABORATIVE_EV) {
+			if (this.zoneType == 0 && this.nearestZoneWithBus.containsKey(destination)) { // Normal zone, first take taxi, then bus
+				// Split between taxi and taxi-bus combined,
+				float threshold = getSplitRatio(destination, true);
+				for (int i = 0; i < numToGenerate; i++) {
+					if (rand_mode_only.nextDouble() > threshold) {
+						if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
+							Request new_pass = new Request(this.ID, destination, this.getCoord(), 
+									destZone.sampleCoord(true),true
+									); 
+							this.addSharableTaxiPass(new_pass, destination);
+						} else {
+							Request new_pass = new Request(this.ID, destination, this.sampleCoord(false), 
+									destZone.sampleCoord(true),false
+									); 
+							this.addTaxiPass(new_pass);
 						}
+						this.numberOfGeneratedTaxiRequest += 1;
 					} 
 					else {
-						// Taxi only
-						for (int i = 0; i < numToGenerate; i++) {
-							if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
-								Request new_pass = new Request(this.ID, destination, this.getCoord(), 
-										destZone.sampleCoord(true),true
-										); 
-								this.addSharableTaxiPass(new_pass, destination);
-							} else {
-								Request new_pass = new Request(this.ID, destination, this.sampleCoord(false), 
-										destZone.sampleCoord(true),false
-										); 
-								this.addTaxiPass(new_pass);
-							}
-							this.numberOfGeneratedTaxiRequest += 1;
-						}
-						if (this.lastDemandUpdateHour != this.currentHour) {
-							this.futureDemand+=(passRate);
-						}
+						// First generate its activity plan
+						Queue<Plan> activityPlan = new LinkedList<Plan>();
+						Plan plan = new Plan(this.nearestZoneWithBus.get(destination),
+								ContextCreator.getZoneContext().get(this.nearestZoneWithBus.get(destination)).getCoord(), ContextCreator.getNextTick());
+						activityPlan.add(plan);
+						Plan plan2 = new Plan(destination,
+								ContextCreator.getZoneContext().get(destination).getCoord(),
+								ContextCreator.getNextTick());
+						activityPlan.add(plan2);
+						Request new_pass = new Request(this.ID, this.sampleCoord(false), activityPlan); 
+						this.addTaxiPass(new_pass);
+						this.numberOfGeneratedCombinedRequest += 1;
 					}
-				} else {
-					// Taxi only
-					for (int i = 0; i < numToGenerate; i++) {
+				}
+			} else if (this.zoneType == 1 && this.nearestZoneWithBus.containsKey(destination)) { // Hub, first bus then taxi
+				// Split between taxi and taxi-bus combined,
+				float threshold = getSplitRatio(destination, true);
+				for (int i = 0; i < numToGenerate; i++) {
+					if (rand_mode_only.nextDouble() > threshold) {
 						if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
 							Request new_pass = new Request(this.ID, destination, this.getCoord(), 
 									destZone.sampleCoord(true),true
@@ -449,25 +442,68 @@ public class Zone {
 							this.addTaxiPass(new_pass);
 						}
 						this.numberOfGeneratedTaxiRequest += 1;
+					} 
+					else {
+						// First generate its activity plan
+						Queue<Plan> activityPlan = new LinkedList<Plan>();
+						Plan plan = new Plan(this.nearestZoneWithBus.get(destination),
+								ContextCreator.getZoneContext().get(this.nearestZoneWithBus.get(destination)).getCoord(), ContextCreator.getNextTick());
+						activityPlan.add(plan);
+						Plan plan2 = new Plan(destination,
+								destZone.sampleCoord(true),
+								ContextCreator.getNextTick());
+						activityPlan.add(plan2);
+						Request new_pass = new Request(this.ID, this.getCoord(), activityPlan); 
+						this.addBusPass(new_pass);
+						this.numberOfGeneratedCombinedRequest += 1;
 					}
-					if (this.lastDemandUpdateHour != this.currentHour) {
-						this.futureDemand+=(passRate);
+				}
+			} 
+			else {
+				// Taxi only
+				for (int i = 0; i < numToGenerate; i++) {
+					if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
+						Request new_pass = new Request(this.ID, destination, this.getCoord(), 
+								destZone.sampleCoord(true),true
+								); 
+						this.addSharableTaxiPass(new_pass, destination);
+					} else {
+						Request new_pass = new Request(this.ID, destination, this.sampleCoord(false), 
+								destZone.sampleCoord(true),false
+								); 
+						this.addTaxiPass(new_pass);
 					}
+					this.numberOfGeneratedTaxiRequest += 1;
 				}
 			}
+		} else {
+			// Taxi only
+			for (int i = 0; i < numToGenerate; i++) {
+				if (rand_share_only.nextDouble()<sharableRate && GlobalVariables.RH_DEMAND_SHARABLE) { // Sharable requests start from the same loc
+					Request new_pass = new Request(this.ID, destination, this.getCoord(), 
+							destZone.sampleCoord(true),true
+							); 
+					this.addSharableTaxiPass(new_pass, destination);
+				} else {
+					Request new_pass = new Request(this.ID, destination, this.sampleCoord(false), 
+							destZone.sampleCoord(true),false
+							); 
+					this.addTaxiPass(new_pass);
+				}
+				this.numberOfGeneratedTaxiRequest += 1;
+			}
 		}
-		
-		this.vehicleSurplus = this.getVehicleStock() - this.nRequestForTaxi + 0.8 * this.futureSupply.get();
-		this.vehicleSurplus = this.vehicleSurplus>0?this.vehicleSurplus:0;
-		this.vehicleDeficiency = this.nRequestForTaxi - this.getVehicleStock() - ContextCreator.getVehicleContext().getRelocationTaxi(this.getID()).size();
-		this.vehicleDeficiency = this.vehicleDeficiency>0?this.vehicleDeficiency:0;
-		
-		ContextCreator.logger.debug("current buss pass is" + this.numberOfGeneratedBusRequest);
-		ContextCreator.logger.debug("current taxi pass is" + this.numberOfGeneratedTaxiRequest);
-
-		if (this.lastDemandUpdateHour != this.currentHour) {
-			this.lastDemandUpdateHour = this.currentHour;
+	}
+	
+	// Split threshold counted in the future demand for the destination, 1 if the requests can only take taxis
+	private float getDemandThreshold(int destination) {
+		if (busReachableZone.contains(destination)) {
+			return getSplitRatio(destination, false);
+		} else if (GlobalVariables.COLLABORATIVE_EV && (this.zoneType == 0 || this.zoneType == 1)
+				&& this.nearestZoneWithBus.containsKey(destination)) {
+			return getSplitRatio(destination, true);
 		}
+		return 1;
 	}
 
 	// Serve passenger
@@ -750,40 +786,22 @@ public class Zone {
 			if(GlobalVariables.NUM_OF_BUS > 0) {
 				this.taxiTravelTime.clear();
 				this.taxiTravelDistance.clear();
+				HubTravelTimes hubTravelTimes = ContextCreator.getZoneContext().getHubTravelTimes();
 				// is hub
 				if (this.zoneType == 1) {
 					// shortest path travel time from hubs to all other zones
 					for (Zone z2 : ContextCreator.getZoneContext().getAll()) {
 						if (this.getIntegerID() != z2.getIntegerID()) {
-							double travel_time = 0;
-							double travel_distance = 0;
-							List<Road> path = RouteContext.shortestPathRoute(this.getCoord(), z2.getCoord(), null);
-							if (path != null) {
-								for (Road r : path) {
-									travel_distance += r.getLength();
-									travel_time += r.getTravelTime();
-								}
-							}
-							this.taxiTravelDistance.put(z2.getIntegerID(), (float) travel_distance);
-							this.taxiTravelTime.put(z2.getIntegerID(), (float) travel_time);
+							this.taxiTravelDistance.put(z2.getIntegerID(), hubTravelTimes.getDistanceFromHub(this.getIntegerID(), z2.getIntegerID()));
+							this.taxiTravelTime.put(z2.getIntegerID(), hubTravelTimes.getTimeFromHub(this.getIntegerID(), z2.getIntegerID()));
 						}
 					}
 				} else {
 					// Shortest path to hubs
 					for (int z2_id :  ContextCreator.getZoneContext().HUB_INDEXES) {
-						Zone z2 = ContextCreator.getZoneContext().get(z2_id);
-						if (this.getIntegerID() != z2.getIntegerID()) {
-							double travel_time = 0;
-							double travel_distance = 0;
-							List<Road> path = RouteContext.shortestPathRoute(this.getCoord(), z2.getCoord(), null);
-							if (path != null) {
-								for (Road r : path) {
-									travel_distance += r.getLength();
-									travel_time += r.getTravelTime();
-								}
-							}
-							this.taxiTravelDistance.put(z2.getIntegerID(), (float) travel_distance);
-							this.taxiTravelTime.put(z2.getIntegerID(), (float) travel_time);
+						if (this.getIntegerID() != z2_id) {
+							this.taxiTravelDistance.put(z2_id, hubTravelTimes.getDistanceToHub(this.getIntegerID(), z2_id));
+							this.taxiTravelTime.put(z2_id, hubTravelTimes.getTimeToHub(this.getIntegerID(), z2_id));
 						}
 					}
 				}
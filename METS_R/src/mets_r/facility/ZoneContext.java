@@ -9,6 +9,7 @@ import java.util.List;
 
 import mets_r.ContextCreator;
 import mets_r.GlobalVariables;
+import mets_r.routing.HubTravelTimes;
 import repast.simphony.context.space.gis.GeographyFactoryFinder;
 import repast.simphony.space.gis.Geography;
 import repast.simphony.space.gis.GeographyParameters;
@@ -17,6 +18,7 @@ import repast.simphony.space.gis.ShapefileLoader;
 public class ZoneContext extends FacilityContext<Zone> {
 	public List<Integer> HUB_INDEXES;
 	public int ZONE_NUM = 0;
+	private volatile HubTravelTimes hubTravelTimes = null; // Travel times between the hubs and the zones of the current hour
 	
 	public ZoneContext() {
 		super("ZoneContext");
@@ -59,4 +61,17 @@ public class ZoneContext extends FacilityContext<Zone> {
 		}
 
 	}
+
+	// Compute the travel times between the hubs and the zones for the current hour, scheduled before the zone step
+	public void refreshHubTravelTimes() {
+		int hour = (int) Math.floor(ContextCreator.getCurrentTick() / GlobalVariables.SIMULATION_SPEED_REFRESH_INTERVAL);
+		if (this.hubTravelTimes == null || this.hubTravelTimes.getHour() != hour) {
+			this.hubTravelTimes = new HubTravelTimes(hour);
+		}
+	}
+
+	// Travel times between the hubs and the zones of the current hour, null before the first refresh
+	public HubTravelTimes getHubTravelTimes() {
+		return this.hubTravelTimes;
+	}
 }
@@ -190,7 +190,16 @@ public class ElectricTaxi extends ElectricVehicle {
 			// Compute new route if eco-routing is not used
 			if (this.roadPath == null || this.roadPath.isEmpty()) {
 				this.routeChoice = -1;
-				this.roadPath = RouteContext.shortestPathRoute(this.getRoad(), this.getDestCoord(), this.rand_route_only); // K-shortest path or shortest path
+				if (GlobalVariables.K_SHORTEST_PATH && ContextCreator.route_UCB.hasCosts()) {
+					// Draw from the candidate routes with their maintained costs instead of a new K-shortest path search,
+					// they must end at the road of the destination coordinates as the search below does
+					Road destRoad = ContextCreator.getCityContext().findRoadAtCoordinates(this.getDestCoord(), true);
+					this.roadPath = RouteContext.logitRoute(this.getRoad(), destRoad, this.getOriginID(), this.getDestID(),
+							this.rand_route_only);
+				}
+				if (this.roadPath == null || this.roadPath.isEmpty()) {
+					this.roadPath = RouteContext.shortestPathRoute(this.getRoad(), this.getDestCoord(), this.rand_route_only); // K-shortest path or shortest path
+				}
 			}
 			
 			// Fix the inconsistency of the start link 
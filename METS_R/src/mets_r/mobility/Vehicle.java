@@ -5,6 +5,7 @@ import com.vividsolutions.jts.geom.Coordinate;
 import mets_r.ContextCreator;
 import mets_r.GlobalVariables;
 import mets_r.data.output.DataCollector;
+import mets_r.facility.Geodesy;
 import mets_r.facility.Junction;
 import mets_r.facility.Lane;
 import mets_r.facility.Road;
@@ -19,12 +20,9 @@ import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.GeodeticCalculator;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 
-import repast.simphony.space.gis.Geography;
-
 /**
  * Inherit from A-RESCUE
  * 
@@ -57,6 +55,8 @@ public class Vehicle {
 	
 	public final static int NONE_OF_THE_ABOVE = -1;
 	
+	private final static double FRACTION_TIE = 1e-9; // Distance fractions closer than this are ordered by the macro list
+	
 	/* Private variables that are not visible to descendant classes */
 	private int destRoadID;
 	private Coordinate currentCoord_; // this variable is created when the vehicle is initialized
@@ -94,9 +94,10 @@ public class Vehicle {
 	private int vehicleSensorType;
 	private int vehicleState; 
 	
-	// For vehicle based routing
-	private List<Coordinate> coordMap;
-	private Geography<Lane> laneGeography;
+	// For vehicle based routing, the vehicle follows the geometry of coordLane
+	// and heads to its point coordIndex, the points before it are passed
+	private Lane coordLane;
+	private int coordIndex;
 	private Vehicle leading_; // leading vehicle in the lane
 	private Vehicle trailing_; // Trailing vehicle in the lane
 	private Vehicle macroLeading_; // Leading vehicle on the road (with all lanes combined)
@@ -111,9 +112,6 @@ public class Vehicle {
 	private ArrayList<Road> futureRoutingRoad;
 	private ArrayList<Plan> activityPlan; // A set of zone for the vehicle to visit
 	
-	// For calculating vehicle coordinates
-	GeodeticCalculator calculator = new GeodeticCalculator(ContextCreator.getLaneGeography().getCRS());
-	
 	// For solving the grid-lock issue in the multi-thread mode
 	private AtomicInteger lastMoveTick = new AtomicInteger(-1);
 	private AtomicInteger lastVisitTick = new AtomicInteger(-1);
@@ -175,8 +173,8 @@ public class Vehicle {
 		this.trailing_ = null;
 		this.road = null;
 		this.nextRoad_ = null;
-		this.laneGeography = ContextCreator.getLaneGeography();
-		this.coordMap = new ArrayList<Coordinate>();
+		this.coordLane = null;
+		this.coordIndex = 0;
 		this.setDestRoadID(-1);
 		this.accummulatedDistance_ = 0;
 		this.roadPath = null;
@@ -313,11 +311,9 @@ public class Vehicle {
 		if(!this.isOnRoad()) { // If the vehicle not in the network, we add it to a pending list to the closest link
 			Road road = ContextCreator.getCityContext().findRoadAtCoordinates(this.getCurrentCoord(), false);
 			// The first list of coordinates for the vehicle to follow
-			Coordinate[] coords = laneGeography.getGeometry(road.firstLane()).getCoordinates();
-			this.setPreviousEpochCoord(coords[0]);
-			for (Coordinate coord : coords) {
-				this.coordMap.add(coord);    
-			}
+			this.coordLane = road.firstLane();
+			this.coordIndex = 0;
+			this.setPreviousEpochCoord(new Coordinate(this.coordLane.getCoordX(0), this.coordLane.getCoordY(0)));
 			road.addVehicleToPendingQueue(this);
 		}
 		else { // The vehicle is on road, we just need to reroute it
@@ -529,6 +525,7 @@ public class Vehicle {
 			plane.firstVehicle(this);
 			plane.lastVehicle(this);
 		}
+		plane.insertVehicle(this, leadVehicle);
 
 		this.updateCoordMap(plane);
 		this.lane = plane;
@@ -542,32 +539,36 @@ public class Vehicle {
 	 */
 	private void updateCoordMap(Lane lane) {
 		this.distance_ = this.distFraction() * lane.getLength();
-		Coordinate[] coords = laneGeography.getGeometry(lane).getCoordinates();
-		coordMap.clear();
-		double accDist = lane.getLength();
-		for (int i = 0; i < coords.length - 1; i++) {
-			accDist -= distance(coords[i], coords[i + 1]);
-			if (this.distance_ + 1e-4 >= accDist) { // Find the first pt in CoordMap that has smaller distance_, add noise to avoid numerical issue
-				this.setCurrentCoord(coords[i]); // Set current coord
-				double[] distAndAngle = new double[2];
-				distance2(coords[i], coords[i + 1], distAndAngle);
-				double distToMove = distAndAngle[0] - (this.distance_ - accDist);
-				if (distToMove > 0) {
-					move2(coords[i], coords[i + 1], distAndAngle[0], distToMove); // Update
-					// vehicle
-					// location
-				}
-				this.nextDistance_ = (this.distance_ - accDist);
-				this.bearing_ = distAndAngle[1];
-				for (int j = i + 1; j < coords.length; j++) { // Add the rest coords into the CoordMap
-					coordMap.add(coords[j]);
-				}
-				break;
+		// Find the first segment whose end is within distance_ to the end of the lane, add noise to avoid numerical issue
+		double target = lane.getLength() - this.distance_ - 1e-4;
+		int lo = 1;
+		int hi = lane.getCoordNum() - 1;
+		if (hi < 1 || lane.getCumDistance(hi) < target) {
+			this.coordLane = lane;
+			this.coordIndex = lane.getCoordNum();
+			ContextCreator.logger.error("Lane changing error, could not find coordMap for the target lane:" + lane.getID() + ", distance: "+ this.distance_);
+			return;
+		}
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (lane.getCumDistance(mid) >= target) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
 			}
 		}
-		if (coordMap.size() == 0) {
-			ContextCreator.logger.error("Lane changing error, could not find coordMap for the target lane:" + lane.getID() + ", accDist: " + accDist+ ", distance: "+ this.distance_);
+		int i = lo - 1; // Index of the segment
+		double accDist = lane.getLength() - lane.getCumDistance(lo); // Distance from the segment end to the lane end
+		this.setCurrentCoord(lane.getCoordX(i), lane.getCoordY(i)); // Set current coord
+		double distToMove = lane.getSegmentLength(i) - (this.distance_ - accDist);
+		if (distToMove > 0) {
+			move2(lane.getCoordX(i), lane.getCoordY(i), lane.getCoordX(lo), lane.getCoordY(lo),
+					lane.getSegmentLength(i), distToMove); // Update vehicle location
 		}
+		this.nextDistance_ = (this.distance_ - accDist);
+		this.bearing_ = lane.getSegmentAzimuth(i);
+		this.coordLane = lane;
+		this.coordIndex = lo; // The rest points of the lane are to be visited
 	}
 	
 	/**
@@ -929,28 +930,27 @@ public class Vehicle {
 			currentSpeed_ =  Math.max(currentSpeed_ + accRate_ * step, 0);
 
 			// Update vehicle coords
-			double[] distAndAngle = new double[2];
-			
 			while (!travelledMaxDist) {
 				// If we can get all the way to the next coords on the route then, just go there
 				if (distTravelled + nextDistance_ <= dx + 1e-3) { // Add a small value since the nextDistance_ might be a tiny but non-zero value
 					distTravelled += nextDistance_;
-					this.setCurrentCoord(this.coordMap.get(0));
-					this.coordMap.remove(0);
-					if (this.coordMap.isEmpty()) {
+					this.setCurrentCoord(this.coordLane.getCoordX(this.coordIndex),
+							this.coordLane.getCoordY(this.coordIndex));
+					this.coordIndex++;
+					if (this.coordIndex >= this.coordLane.getCoordNum()) {
 						this.distance_ -= nextDistance_;
 						this.nextDistance_ = 0;
 						lastStepMove_ = distTravelled;
 						current_road.recordEnergyConsumption(this);
 						current_road.recordTravelTime(this);
-						this.coordMap.add(this.currentCoord_);
+						this.coordIndex = this.coordLane.getCoordNum() - 1; // Hold at the end of the lane
 						this.onLane = false; // add to junction
 						break;
 					} else {
-						this.distance2(this.getCurrentCoord(), this.coordMap.get(0), distAndAngle);
+						// The vehicle is on a point of the lane, use the precomputed segment
 						this.distance_ -= this.nextDistance_;
-						this.nextDistance_ = distAndAngle[0];
-						this.bearing_ = distAndAngle[1];
+						this.nextDistance_ = this.coordLane.getSegmentLength(this.coordIndex - 1);
+						this.bearing_ = this.coordLane.getSegmentAzimuth(this.coordIndex - 1);
 					}
 				}
 				// Otherwise move as far as we can 
@@ -958,7 +958,8 @@ public class Vehicle {
 					double distToMove = dx - distTravelled;;
 					if(distToMove > 0) {
 						this.distance_ -=  distToMove;
-						move2(this.getCurrentCoord(), this.coordMap.get(0), nextDistance_, distToMove);
+						move2(this.currentCoord_.x, this.currentCoord_.y, this.coordLane.getCoordX(this.coordIndex),
+								this.coordLane.getCoordY(this.coordIndex), nextDistance_, distToMove);
 						this.nextDistance_ -= distToMove;
 					}
 					lastStepMove_ =  dx;
@@ -991,21 +992,18 @@ public class Vehicle {
 	 * Moving vehicle to its closest road.
 	 */
 	public void primitiveMove() {
-		Coordinate currentCoord = this.getCurrentCoord();
-		Coordinate target = this.coordMap.get(0);
 		if (this.isReachDest) {
 			return;
 		}
-
-		double[] distAndAngle = new double[2];
-		double distToTarget;
-		distToTarget = this.distance2(currentCoord, target, distAndAngle);
+		double targetX = this.coordLane.getCoordX(this.coordIndex);
+		double targetY = this.coordLane.getCoordY(this.coordIndex);
+		double distToTarget = Geodesy.distance(this.currentCoord_.x, this.currentCoord_.y, targetX, targetY);
 
 		if (distToTarget <= travelPerTurn) { // Include the equal case, which is important
-			this.setCurrentCoord(target);
+			this.setCurrentCoord(targetX, targetY);
 		} else {
 			double distToTravel = travelPerTurn;
-			move2(currentCoord, target, distToTarget, distToTravel);
+			move2(this.currentCoord_.x, this.currentCoord_.y, targetX, targetY, distToTarget, distToTravel);
 		}
 		return;
 	}
@@ -1088,8 +1086,7 @@ public class Vehicle {
 			
 			// Fail to enter next link, try again in the next tick
 			this.onLane = false;
-			coordMap.clear();
-			coordMap.add(this.getCurrentCoord()); 
+			this.coordIndex = this.coordLane.getCoordNum() - 1; // Hold at the end of the lane
 			return false;
 		}
 		else {
@@ -1106,15 +1103,10 @@ public class Vehicle {
 	 * @return 0-not close enough to the road , 1-close enough to the road
 	 */
 	public int closeToRoad(Road road) {
-		Coordinate currentCoord = this.getCurrentCoord();
-		Coordinate nextCoord;
-		if (this.coordMap == null)
-			return 0;
-		else if (this.coordMap.size() == 0)
+		if (this.coordLane == null || this.coordIndex >= this.coordLane.getCoordNum())
 			return 0;
-		else
-			nextCoord = this.coordMap.get(0);
-		if (distance(currentCoord, nextCoord) < GlobalVariables.TRAVEL_PER_TURN) {
+		if (Geodesy.distance(this.currentCoord_.x, this.currentCoord_.y, this.coordLane.getCoordX(this.coordIndex),
+				this.coordLane.getCoordY(this.coordIndex)) < GlobalVariables.TRAVEL_PER_TURN) {
 			return 1;
 
 		} else
@@ -1395,6 +1387,19 @@ public class Vehicle {
 		}
 	}
 	
+	/**
+	 * Set the vehicle location without creating a new coordinate
+	 * @param x
+	 * @param y
+	 */
+	private void setCurrentCoord(double x, double y) {
+		this.currentCoord_.x = x;
+		this.currentCoord_.y = y;
+		if (this.originCoord == null) {
+			this.originCoord = new Coordinate(x, y);
+		}
+	}
+	
 	/**
 	 * Set the vehicle location using coordinates from the original coordinate system
 	 * @param coord New location
@@ -1516,6 +1521,7 @@ public class Vehicle {
 			}
 			this.leading(null);
 			this.trailing(null);
+			this.lane.removeVehicle(this);
 			this.lane.removeOneVehicle();
 			this.lane = null;
 		}
@@ -1959,11 +1965,15 @@ public class Vehicle {
 	 * @return Vehicle leadVehicle
 	 */
 	public Vehicle leadVehicle(Lane plane) {
-		Vehicle leadVehicle = this.macroLeading_;
-		while (leadVehicle != null && leadVehicle.lane != plane) {
-			leadVehicle = leadVehicle.macroLeading_;
+		if (plane == this.lane) {
+			Vehicle leadVehicle = this.macroLeading_;
+			while (leadVehicle != null && leadVehicle.lane != plane) {
+				leadVehicle = leadVehicle.macroLeading_;
+			}
+			return leadVehicle;
 		}
-		return leadVehicle;
+		int i = this.firstBehindIndex(plane);
+		return i > 0 ? plane.getVehicle(i - 1) : null;
 	}
 
 	/**
@@ -1972,11 +1982,53 @@ public class Vehicle {
 	 * @return Vehicle lag Vehicle
 	 */
 	public Vehicle lagVehicle(Lane plane) {
-		Vehicle lagVehicle = this.macroTrailing_;
-		while (lagVehicle != null && lagVehicle.lane != plane) {
-			lagVehicle = lagVehicle.macroTrailing_;
+		if (plane == this.lane) {
+			Vehicle lagVehicle = this.macroTrailing_;
+			while (lagVehicle != null && lagVehicle.lane != plane) {
+				lagVehicle = lagVehicle.macroTrailing_;
+			}
+			return lagVehicle;
 		}
-		return lagVehicle;
+		int i = this.firstBehindIndex(plane);
+		return i < plane.nVehicles() ? plane.getVehicle(i) : null;
+	}
+
+	/**
+	 * Index of the first vehicle in plane that is behind this vehicle in the
+	 * macro list of the road. The vehicles of a lane keep the order of the macro
+	 * list, so a binary search returns the same lead and lag vehicles as walking
+	 * the macro list.
+	 * @param plane Target lane
+	 * @return int index
+	 */
+	private int firstBehindIndex(Lane plane) {
+		double frac = this.distFraction();
+		int lo = 0;
+		int hi = plane.nVehicles();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.isMacroAhead(plane.getVehicle(mid), frac)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// Whether v is ahead of this vehicle in the macro list, frac is the distance fraction of this vehicle
+	private boolean isMacroAhead(Vehicle v, double frac) {
+		double vFrac = v.distFraction();
+		if (vFrac < frac - FRACTION_TIE) return true;
+		if (vFrac > frac + FRACTION_TIE) return false;
+		// Tie in distance fraction, resolve it with the macro list. Ties are up to a rounding error since
+		// updateCoordMap rescales the distance to the length of the new lane
+		Vehicle leadVehicle = this.macroLeading_;
+		while (leadVehicle != null && leadVehicle.distFraction() >= frac - FRACTION_TIE) {
+			if (leadVehicle == v) return true;
+			leadVehicle = leadVehicle.macroLeading_;
+		}
+		return false;
 	}
 
 	/**
@@ -2155,57 +2207,21 @@ public class Vehicle {
 		return gap;
 	}
 	
-	/**
-	 * Distance between two locations
-	 * @param c1
-	 * @param c2
-	 * @return double distance
-	 */
-	private double distance(Coordinate c1, Coordinate c2) {
-		calculator.setStartingGeographicPoint(c1.x, c1.y);
-		calculator.setDestinationGeographicPoint(c2.x, c2.y);
-		double distance = calculator.getOrthodromicDistance();
-		return distance;
-	}
-	
-	/**
-	 * Distance between two locations
-	 * @param c1
-	 * @param c2
-	 * @param returnVals data structure for saving the distance and angle
-	 * @return double distance
-	 */
-	private double distance2(Coordinate c1, Coordinate c2, double[] returnVals) {
-		double distance;
-		double radius;
-		calculator.setStartingGeographicPoint(c1.x, c1.y);
-		calculator.setDestinationGeographicPoint(c2.x, c2.y);
-		distance = calculator.getOrthodromicDistance();
-		radius = calculator.getAzimuth(); // the azimuth in degree, value from -180-180
-		if (returnVals != null && returnVals.length == 2) {
-			returnVals[0] = distance;
-			returnVals[1] = radius;
-		}
-		if (Double.isNaN(distance)) {
-			ContextCreator.logger.error("Geodetic distance is NaN for " + this);
-			distance = 0.0;
-			radius = 0.0;
-		}
-		return distance;
-	}	
-	
 	/**
 	 * Move vehicle toward a target location for certain amount of distance
-	 * @param origin
-	 * @param target
+	 * @param originX
+	 * @param originY
+	 * @param targetX
+	 * @param targetY
 	 * @param distanceToTarget
 	 * @param distanceTravelled
 	 */
-	private void move2(Coordinate origin, Coordinate target, double distanceToTarget, double distanceTravelled) {
+	private void move2(double originX, double originY, double targetX, double targetY, double distanceToTarget,
+			double distanceTravelled) {
 		double p = distanceTravelled / distanceToTarget;
 		if (p < 0) p = 0;
 		if (p > 1) p = 1;
-		this.setCurrentCoord(new Coordinate((1 - p) * origin.x + p * target.x, (1 - p) * origin.y + +p * target.y));
+		this.setCurrentCoord((1 - p) * originX + p * targetX, (1 - p) * originY + p * targetY);
 	}
 	
 	/**
@@ -2305,8 +2321,9 @@ public class Vehicle {
 	 * Print the coordMap (subroute within a road) of the vehicle
 	 */
 	public void printCoordMap() {
-		for(Coordinate coord: this.coordMap) {
-			ContextCreator.logger.info(coord);
+		if (this.coordLane == null) return;
+		for (int i = this.coordIndex; i < this.coordLane.getCoordNum(); i++) {
+			ContextCreator.logger.info(new Coordinate(this.coordLane.getCoordX(i), this.coordLane.getCoordY(i)));
 		}
 	}
 }
@@ -0,0 +1,111 @@
+package mets_r.routing;
+
+import java.util.Arrays;
+
+/**
+ * A* search over a RoadGraph.
+ *
+ * Nodes are ordered by their distance from the source plus a lower bound of
+ * the travel time to the target, taken from the straight-line distance and
+ * the largest straight-line speed of the network (see
+ * RoadGraph.getTravelTimeBound). The bound never overestimates and is
+ * consistent along the edges, so the path is as short as the one of
+ * DijkstraEngine while the search is pulled toward the target.
+ *
+ * Working arrays are reused across searches with version stamps like in
+ * DijkstraEngine, so an engine must only be used by one thread.
+ **/
+
+public class AStarEngine implements ShortestPathEngine {
+	private RoadGraph graph;
+	private double[] dist; // Distance from the source
+	private double[] priority; // Distance from the source plus the bound to the target
+	private int[] parentEdge;
+	private int[] parentNode;
+	private int[] visitStamp; // The entries above are valid when it equals to stamp
+	private int stamp;
+	private NodeHeap heap;
+	private int[] pathBuffer;
+	private double lastDistance;
+
+	public AStarEngine(RoadGraph graph) {
+		int nodeNum = graph.getNodeNum();
+		this.graph = graph;
+		this.dist = new double[nodeNum];
+		this.priority = new double[nodeNum];
+		this.parentEdge = new int[nodeNum];
+		this.parentNode = new int[nodeNum];
+		this.visitStamp = new int[nodeNum];
+		this.stamp = 0;
+		this.heap = new NodeHeap(this.priority);
+		this.pathBuffer = new int[nodeNum];
+		this.lastDistance = 0;
+	}
+
+	@Override
+	public int[] shortestPath(int source, int target) {
+		if (source < 0 || target < 0) return null;
+		this.newSearch();
+		this.reach(source, 0, this.graph.getTravelTimeBound(source, target), -1, -1);
+		while (!this.heap.isEmpty()) {
+			int u = this.heap.pop();
+			if (u == target) {
+				this.lastDistance = this.dist[u];
+				return this.buildPath(source, target);
+			}
+			double du = this.dist[u];
+			for (int e = this.graph.getEdgeStart(u); e < this.graph.getEdgeStart(u + 1); e++) {
+				int v = this.graph.getEdgeHead(e);
+				double dv = du + this.graph.getEdgeWeight(e);
+				if (this.visitStamp[v] != this.stamp) {
+					this.reach(v, dv, this.graph.getTravelTimeBound(v, target), e, u);
+				} else if (this.heap.isQueued(v) && dv < this.dist[v]) {
+					this.priority[v] += dv - this.dist[v];
+					this.dist[v] = dv;
+					this.parentEdge[v] = e;
+					this.parentNode[v] = u;
+					this.heap.decreaseKey(v);
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public double getLastDistance() {
+		return this.lastDistance;
+	}
+
+	private void newSearch() {
+		if (this.stamp == Integer.MAX_VALUE) {
+			Arrays.fill(this.visitStamp, 0);
+			this.stamp = 0;
+		}
+		this.stamp++;
+		this.heap.clear();
+	}
+
+	private void reach(int v, double d, double bound, int e, int u) {
+		this.visitStamp[v] = this.stamp;
+		this.dist[v] = d;
+		this.priority[v] = d + bound;
+		this.parentEdge[v] = e;
+		this.parentNode[v] = u;
+		this.heap.push(v);
+	}
+
+	private int[] buildPath(int source, int target) {
+		int n = 0;
+		for (int v = target; v != source; v = this.parentNode[v]) {
+			int road = this.graph.getEdgeRoad(this.parentEdge[v]);
+			if (road >= 0) {
+				this.pathBuffer[n++] = road;
+			}
+		}
+		int[] path = new int[n];
+		for (int i = 0; i < n; i++) {
+			path[i] = this.pathBuffer[n - 1 - i];
+		}
+		return path;
+	}
+}
@@ -0,0 +1,148 @@
+package mets_r.routing;
+
+import java.util.Arrays;
+
+/**
+ * Shortest path queries on a customized ContractionHierarchy.
+ *
+ * A query runs two upward searches, one from the source on the weights from
+ * the tail to the head and one from the target on the weights from the head to
+ * the tail, and stops once both queues are above the best meeting cost. The
+ * path is then unpacked into roads. Working arrays are reused across queries
+ * with version stamps like in DijkstraEngine, so an engine must only be used
+ * by one thread.
+ **/
+
+public class CHEngine implements ShortestPathEngine {
+	private ContractionHierarchy ch;
+	private double[] forwardDist;
+	private double[] backwardDist;
+	private int[] forwardParentArc; // Arc used to reach the node in the forward search
+	private int[] backwardParentArc;
+	private int[] forwardStamp; // The forward entries are valid when it equals to stamp
+	private int[] backwardStamp;
+	private int stamp;
+	private NodeHeap forwardHeap;
+	private NodeHeap backwardHeap;
+	private int[] arcBuffer;
+	private int[] pathBuffer;
+	private int[] unpackStack;
+	private double lastDistance;
+
+	public CHEngine(ContractionHierarchy ch) {
+		int nodeNum = ch.getNodeNum();
+		this.ch = ch;
+		this.forwardDist = new double[nodeNum];
+		this.backwardDist = new double[nodeNum];
+		this.forwardParentArc = new int[nodeNum];
+		this.backwardParentArc = new int[nodeNum];
+		this.forwardStamp = new int[nodeNum];
+		this.backwardStamp = new int[nodeNum];
+		this.stamp = 0;
+		this.forwardHeap = new NodeHeap(this.forwardDist);
+		this.backwardHeap = new NodeHeap(this.backwardDist);
+		this.arcBuffer = new int[nodeNum];
+		this.pathBuffer = new int[nodeNum];
+		this.unpackStack = new int[nodeNum];
+		this.lastDistance = 0;
+	}
+
+	@Override
+	public int[] shortestPath(int source, int target) {
+		if (source < 0 || target < 0) return null;
+		this.newSearch();
+		this.forwardStamp[source] = this.stamp;
+		this.forwardDist[source] = 0;
+		this.forwardParentArc[source] = -1;
+		this.forwardHeap.push(source);
+		this.backwardStamp[target] = this.stamp;
+		this.backwardDist[target] = 0;
+		this.backwardParentArc[target] = -1;
+		this.backwardHeap.push(target);
+
+		double best = Double.MAX_VALUE;
+		int meet = -1;
+		while (!this.forwardHeap.isEmpty() || !this.backwardHeap.isEmpty()) {
+			boolean forward = this.backwardHeap.isEmpty()
+					|| (!this.forwardHeap.isEmpty() && this.forwardHeap.topKey() <= this.backwardHeap.topKey());
+			double top = forward ? this.forwardHeap.topKey() : this.backwardHeap.topKey();
+			if (top >= best) break; // Both queues are above the best path
+			if (forward) {
+				int u = this.forwardHeap.pop();
+				double du = this.forwardDist[u];
+				if (this.backwardStamp[u] == this.stamp && du + this.backwardDist[u] < best) {
+					best = du + this.backwardDist[u];
+					meet = u;
+				}
+				for (int k = this.ch.getArcStart(u); k < this.ch.getArcStart(u + 1); k++) {
+					double w = this.ch.getUpWeight(k);
+					if (w >= Double.MAX_VALUE) continue;
+					this.relax(this.forwardDist, this.forwardParentArc, this.forwardStamp, this.forwardHeap,
+							this.ch.getArcHead(k), du + w, k);
+				}
+			} else {
+				int u = this.backwardHeap.pop();
+				double du = this.backwardDist[u];
+				if (this.forwardStamp[u] == this.stamp && du + this.forwardDist[u] < best) {
+					best = du + this.forwardDist[u];
+					meet = u;
+				}
+				for (int k = this.ch.getArcStart(u); k < this.ch.getArcStart(u + 1); k++) {
+					double w = this.ch.getDownWeight(k);
+					if (w >= Double.MAX_VALUE) continue;
+					this.relax(this.backwardDist, this.backwardParentArc, this.backwardStamp, this.backwardHeap,
+							this.ch.getArcHead(k), du + w, k);
+				}
+			}
+		}
+		if (meet < 0) return null;
+		this.lastDistance = best;
+		return this.buildPath(source, target, meet);
+	}
+
+	@Override
+	public double getLastDistance() {
+		return this.lastDistance;
+	}
+
+	private void newSearch() {
+		if (this.stamp == Integer.MAX_VALUE) {
+			Arrays.fill(this.forwardStamp, 0);
+			Arrays.fill(this.backwardStamp, 0);
+			this.stamp = 0;
+		}
+		this.stamp++;
+		this.forwardHeap.clear();
+		this.backwardHeap.clear();
+	}
+
+	private void relax(double[] dist, int[] parentArc, int[] visitStamp, NodeHeap heap, int v, double dv, int k) {
+		if (visitStamp[v] != this.stamp) {
+			visitStamp[v] = this.stamp;
+			dist[v] = dv;
+			parentArc[v] = k;
+			heap.push(v);
+		} else if (heap.isQueued(v) && dv < dist[v]) {
+			dist[v] = dv;
+			parentArc[v] = k;
+			heap.decreaseKey(v);
+		}
+	}
+
+	private int[] buildPath(int source, int target, int meet) {
+		// Arcs from the source up to the meeting node, collected backward
+		int arcNum = 0;
+		for (int v = meet; v != source; v = this.ch.getArcTail(this.forwardParentArc[v])) {
+			this.arcBuffer[arcNum++] = this.forwardParentArc[v];
+		}
+		int n = 0;
+		for (int i = arcNum - 1; i >= 0; i--) {
+			n = this.ch.unpack(this.arcBuffer[i], true, this.pathBuffer, n, this.unpackStack);
+		}
+		// Arcs from the meeting node down to the target
+		for (int v = meet; v != target; v = this.ch.getArcTail(this.backwardParentArc[v])) {
+			n = this.ch.unpack(this.backwardParentArc[v], false, this.pathBuffer, n, this.unpackStack);
+		}
+		return Arrays.copyOf(this.pathBuffer, n);
+	}
+}
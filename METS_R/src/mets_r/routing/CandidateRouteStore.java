@@ -0,0 +1,355 @@
+package mets_r.routing;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Candidate routes of the OD pairs for eco-routing, stored as flat arrays.
+ *
+ * OD pairs are keyed by packOD(origin, destination) and sorted by key. The
+ * routes of the i-th OD pair are from getRouteStart(i) to getRouteStart(i + 1) - 1
+ * in the path table, and the roads of path p are from pathStart[p] to
+ * pathStart[p + 1] - 1 in the flat road ID array.
+ *
+ * The binary file holds the same arrays after a header of six ints (magic,
+ * version, number of OD pairs, paths and roads, and a reserved zero to align
+ * the keys), all big-endian. It is memory-mapped when loaded, so the routes are
+ * read from the page cache instead of being copied into the heap.
+ *
+ * Once initCosts is called, the store also keeps the cost of each route as the
+ * sum of the costs of its roads. updateRoadCost only adds the change of the
+ * road to the routes through it, so chooseRoute draws a route by the logit
+ * model in O(K) without summing the roads again. To keep the rounding errors
+ * of these additions from building up over the run, the route costs are summed
+ * again from the road costs once the updates have changed as many route costs
+ * as there are roads on all routes, which at most doubles the update work. The
+ * costs live in the heap and are not saved.
+ *
+ * The routes are read-only once built and can be shared by all threads. Road
+ * costs must not be updated while routes are being chosen.
+ **/
+
+public class CandidateRouteStore {
+	public static final int MAGIC = 0x4D524352; // "MRCR"
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private LongBuffer odKeys;
+	private IntBuffer routeStart;
+	private IntBuffer pathStart;
+	private IntBuffer roadIDs;
+	private double[] routeCost; // Cost of each path, null until initCosts is called
+	private HashMap<Integer, Integer> roadSlot; // Slot of each road used by the paths
+	private double[] roadCost; // Cost of the road of each slot
+	private int[] slotPathStart; // Paths through the road of slot s are from slotPathStart[s] to slotPathStart[s + 1] - 1
+	private int[] slotPaths; // Listed once per occurrence of the road in the path
+	private int[] roadSlots; // Slot of each entry of roadIDs
+	private long updateNum; // Route costs changed by updateRoadCost since they were last summed
+
+	// Empty store
+	public CandidateRouteStore() {
+		this(new TreeMap<Long, List<List<Integer>>>());
+	}
+
+	/**
+	 * Build the store from routes keyed by packOD(origin, destination)
+	 */
+	public CandidateRouteStore(Map<Long, List<List<Integer>>> routes) {
+		TreeMap<Long, List<List<Integer>>> sorted = new TreeMap<Long, List<List<Integer>>>(routes);
+		int pathNum = 0;
+		int roadNum = 0;
+		for (List<List<Integer>> paths : sorted.values()) {
+			pathNum += paths.size();
+			for (List<Integer> path : paths) {
+				roadNum += path.size();
+			}
+		}
+		long[] keys = new long[sorted.size()];
+		int[] routeStarts = new int[sorted.size() + 1];
+		int[] pathStarts = new int[pathNum + 1];
+		int[] roads = new int[roadNum];
+		int i = 0;
+		int p = 0;
+		int r = 0;
+		for (Map.Entry<Long, List<List<Integer>>> entry : sorted.entrySet()) {
+			keys[i] = entry.getKey();
+			routeStarts[i] = p;
+			for (List<Integer> path : entry.getValue()) {
+				pathStarts[p++] = r;
+				for (int roadID : path) {
+					roads[r++] = roadID;
+				}
+			}
+			i++;
+		}
+		routeStarts[i] = p;
+		pathStarts[p] = r;
+		this.odKeys = LongBuffer.wrap(keys);
+		this.routeStart = IntBuffer.wrap(routeStarts);
+		this.pathStart = IntBuffer.wrap(pathStarts);
+		this.roadIDs = IntBuffer.wrap(roads);
+	}
+
+	private CandidateRouteStore(LongBuffer odKeys, IntBuffer routeStart, IntBuffer pathStart, IntBuffer roadIDs) {
+		this.odKeys = odKeys;
+		this.routeStart = routeStart;
+		this.pathStart = pathStart;
+		this.roadIDs = roadIDs;
+	}
+
+	public static long packOD(int origin, int destination) {
+		return ((long) origin << 32) | (destination & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Memory-map a store saved by save()
+	 * @param fileName Path of the binary file
+	 * @return CandidateRouteStore
+	 * @throws IOException if the file cannot be read or is not a candidate route file of this version
+	 */
+	public static CandidateRouteStore load(String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+				throw new IOException(fileName + " is not a candidate route file");
+			}
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException(fileName + " has version " + buffer.getInt(4) + ", expected " + VERSION);
+			}
+			int odNum = buffer.getInt(8);
+			int pathNum = buffer.getInt(12);
+			int roadNum = buffer.getInt(16);
+			long expectedSize = HEADER_SIZE + 8L * odNum + 4L * (odNum + 1) + 4L * (pathNum + 1) + 4L * roadNum;
+			if (buffer.capacity() != expectedSize) {
+				throw new IOException(fileName + " is truncated or corrupted");
+			}
+			int position = HEADER_SIZE;
+			LongBuffer odKeys = slice(buffer, position, 8 * odNum).asLongBuffer();
+			position += 8 * odNum;
+			IntBuffer routeStart = slice(buffer, position, 4 * (odNum + 1)).asIntBuffer();
+			position += 4 * (odNum + 1);
+			IntBuffer pathStart = slice(buffer, position, 4 * (pathNum + 1)).asIntBuffer();
+			position += 4 * (pathNum + 1);
+			IntBuffer roadIDs = slice(buffer, position, 4 * roadNum).asIntBuffer();
+			return new CandidateRouteStore(odKeys, routeStart, pathStart, roadIDs);
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		view.limit(position + length);
+		return view.slice();
+	}
+
+	public void save(String fileName) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fileName)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.size());
+			out.writeInt(this.pathStart.limit() - 1);
+			out.writeInt(this.roadIDs.limit());
+			out.writeInt(0);
+			for (int i = 0; i < this.odKeys.limit(); i++) {
+				out.writeLong(this.odKeys.get(i));
+			}
+			for (int i = 0; i < this.routeStart.limit(); i++) {
+				out.writeInt(this.routeStart.get(i));
+			}
+			for (int i = 0; i < this.pathStart.limit(); i++) {
+				out.writeInt(this.pathStart.get(i));
+			}
+			for (int i = 0; i < this.roadIDs.limit(); i++) {
+				out.writeInt(this.roadIDs.get(i));
+			}
+		}
+	}
+
+	// Number of OD pairs
+	public int size() {
+		return this.odKeys.limit();
+	}
+
+	// Index of the OD pair, -1 if the pair has no candidate routes
+	public int indexOf(int origin, int destination) {
+		long key = packOD(origin, destination);
+		int lo = 0;
+		int hi = this.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long midKey = this.odKeys.get(mid);
+			if (midKey < key) {
+				lo = mid + 1;
+			} else if (midKey > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public int getOrigin(int i) {
+		return (int) (this.odKeys.get(i) >> 32);
+	}
+
+	public int getDestination(int i) {
+		return (int) this.odKeys.get(i);
+	}
+
+	public int getRouteNum(int i) {
+		return this.routeStart.get(i + 1) - this.routeStart.get(i);
+	}
+
+	// Number of roads of the k-th route of the i-th OD pair
+	public int getRoadNum(int i, int k) {
+		int p = this.routeStart.get(i) + k;
+		return this.pathStart.get(p + 1) - this.pathStart.get(p);
+	}
+
+	// The j-th road of the k-th route of the i-th OD pair
+	public int getRoadID(int i, int k, int j) {
+		return this.roadIDs.get(this.pathStart.get(this.routeStart.get(i) + k) + j);
+	}
+
+	// The routes of the i-th OD pair as lists, for sending them out
+	public List<List<Integer>> getRoutes(int i) {
+		List<List<Integer>> routes = new ArrayList<List<Integer>>();
+		for (int k = 0; k < this.getRouteNum(i); k++) {
+			List<Integer> route = new ArrayList<Integer>();
+			for (int j = 0; j < this.getRoadNum(i, k); j++) {
+				route.add(this.getRoadID(i, k, j));
+			}
+			routes.add(route);
+		}
+		return routes;
+	}
+
+	/**
+	 * Compute the cost of all routes and index the routes of each road for updateRoadCost
+	 * @param cost Cost of a road given its ID
+	 */
+	public void initCosts(IntToDoubleFunction cost) {
+		int pathNum = this.pathStart.limit() - 1;
+		this.roadSlot = new HashMap<Integer, Integer>();
+		int[] roadSlots = new int[this.roadIDs.limit()];
+		this.roadSlots = roadSlots;
+		for (int r = 0; r < this.roadIDs.limit(); r++) {
+			Integer slot = this.roadSlot.get(this.roadIDs.get(r));
+			if (slot == null) {
+				slot = this.roadSlot.size();
+				this.roadSlot.put(this.roadIDs.get(r), slot);
+			}
+			roadSlots[r] = slot;
+		}
+		int slotNum = this.roadSlot.size();
+		this.roadCost = new double[slotNum];
+		for (Map.Entry<Integer, Integer> entry : this.roadSlot.entrySet()) {
+			this.roadCost[entry.getValue()] = cost.applyAsDouble(entry.getKey());
+		}
+		this.slotPathStart = new int[slotNum + 1];
+		for (int r = 0; r < roadSlots.length; r++) {
+			this.slotPathStart[roadSlots[r] + 1]++;
+		}
+		for (int s = 0; s < slotNum; s++) {
+			this.slotPathStart[s + 1] += this.slotPathStart[s];
+		}
+		this.slotPaths = new int[roadSlots.length];
+		int[] next = Arrays.copyOf(this.slotPathStart, slotNum);
+		for (int p = 0; p < pathNum; p++) {
+			for (int r = this.pathStart.get(p); r < this.pathStart.get(p + 1); r++) {
+				this.slotPaths[next[roadSlots[r]]++] = p;
+			}
+		}
+		this.routeCost = new double[pathNum];
+		this.sumRouteCosts();
+	}
+
+	// Set the cost of each route to the sum of the current costs of its roads
+	private void sumRouteCosts() {
+		for (int p = 0; p < this.routeCost.length; p++) {
+			double cost = 0;
+			for (int r = this.pathStart.get(p); r < this.pathStart.get(p + 1); r++) {
+				cost += this.roadCost[this.roadSlots[r]];
+			}
+			this.routeCost[p] = cost;
+		}
+		this.updateNum = 0;
+	}
+
+	// Set the cost of a road and update the routes through it, ignored before initCosts or for roads on no route
+	public void updateRoadCost(int roadID, double cost) {
+		if (this.routeCost == null) return;
+		Integer slot = this.roadSlot.get(roadID);
+		if (slot == null) return;
+		double delta = cost - this.roadCost[slot];
+		if (delta == 0) return;
+		this.roadCost[slot] = cost;
+		for (int j = this.slotPathStart[slot]; j < this.slotPathStart[slot + 1]; j++) {
+			this.routeCost[this.slotPaths[j]] += delta;
+		}
+		this.updateNum += this.slotPathStart[slot + 1] - this.slotPathStart[slot];
+		if (this.updateNum >= this.roadSlots.length) {
+			this.sumRouteCosts();
+		}
+	}
+
+	public boolean hasCosts() {
+		return this.routeCost != null;
+	}
+
+	// Cost of the k-th route of the i-th OD pair
+	public double getRouteCost(int i, int k) {
+		return this.routeCost[this.routeStart.get(i) + k];
+	}
+
+	/**
+	 * Draw one route of the i-th OD pair with probability exp(-theta * cost) / sum of exp(-theta * cost)
+	 * @param i Index of the OD pair
+	 * @param theta Parameter of the logit model
+	 * @param random Uniform random number in [0, 1)
+	 * @return int Index of the route, -1 if the OD pair has no route
+	 */
+	public int chooseRoute(int i, double theta, double random) {
+		int first = this.routeStart.get(i);
+		int routeNum = this.getRouteNum(i);
+		if (routeNum <= 0) return -1;
+		// Costs are taken relative to the cheapest route, which gives the same probabilities without underflow
+		double minCost = Double.MAX_VALUE;
+		for (int k = 0; k < routeNum; k++) {
+			minCost = Math.min(minCost, this.routeCost[first + k]);
+		}
+		double total = 0;
+		for (int k = 0; k < routeNum; k++) {
+			total += Math.exp(-theta * (this.routeCost[first + k] - minCost));
+		}
+		double target = random * total;
+		double cumulative = 0;
+		for (int k = 0; k < routeNum; k++) {
+			cumulative += Math.exp(-theta * (this.routeCost[first + k] - minCost));
+			if (target < cumulative) return k;
+		}
+		return routeNum - 1;
+	}
+
+	// Size of the arrays in bytes
+	public long getByteSize() {
+		return 8L * this.odKeys.limit() + 4L * (this.routeStart.limit() + this.pathStart.limit() + this.roadIDs.limit());
+	}
+}
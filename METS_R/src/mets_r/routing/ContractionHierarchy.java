@@ -0,0 +1,435 @@
+package mets_r.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+import mets_r.ContextCreator;
+
+/**
+ * Customizable contraction hierarchy (CCH) over a RoadGraph.
+ *
+ * The hierarchy is built in two steps. The contraction only depends on the
+ * structure of the graph and is done once: nodes are ranked by a minimum
+ * degree order and each node is contracted by connecting all its higher ranked
+ * neighbors, without any witness search. The customization then computes the
+ * weights of the resulting upward arcs from the current edge weights by
+ * enumerating the lower triangles of each arc, so it can be redone every time
+ * the travel times are updated while the arcs stay the same.
+ *
+ * Each upward arc stores the weight in both directions, and for each direction
+ * either the original edge it stands for or the lower node of the shortcut,
+ * which is used to unpack paths into roads.
+ *
+ * When only a few edges change, customize(edges, edgeNum) recomputes the arcs
+ * of these edges and then only the arcs whose lower triangles go through an
+ * arc that actually changed, which gives the same weights as a full
+ * customization.
+ *
+ * Queries are done by CHEngine. The hierarchy must not be customized while
+ * queries are running.
+ **/
+
+public class ContractionHierarchy {
+	private RoadGraph graph;
+	private int[] rank; // Contraction order of each node
+	private int[] order; // Node of each rank
+	private int[] arcStart; // Upward arcs of node i are from arcStart[i] to arcStart[i + 1] - 1, sorted by the rank of the head
+	private int[] arcTail;
+	private int[] arcHead;
+	private double[] upWeight; // Weight from the tail to the head
+	private double[] downWeight; // Weight from the head to the tail
+	private int[] upMid; // Lower node of the shortcut from the tail to the head, -1 if it is an original edge
+	private int[] downMid;
+	private int[] upEdge; // Original edge from the tail to the head in the RoadGraph, -1 if there is none
+	private int[] downEdge;
+	private int[] edgeArc; // Arc of each edge of the RoadGraph, -1 for loops
+	private int[] arcEdgeStart; // Edges of arc k are from arcEdgeStart[k] to arcEdgeStart[k + 1] - 1
+	private int[] arcEdges; // 2 * edge, plus 1 if the edge goes from the tail to the head
+	private int[] lowerStart; // Arcs with head v are from lowerStart[v] to lowerStart[v + 1] - 1
+	private int[] lowerArcs; // Sorted by the rank of the tail
+
+	public ContractionHierarchy(RoadGraph graph) {
+		this.graph = graph;
+		this.contract();
+	}
+
+	private void contract() {
+		long startTime = System.currentTimeMillis();
+		int n = this.graph.getNodeNum();
+		ArrayList<HashSet<Integer>> adj = new ArrayList<HashSet<Integer>>(n);
+		for (int i = 0; i < n; i++) {
+			adj.add(new HashSet<Integer>());
+		}
+		for (int u = 0; u < n; u++) {
+			for (int e = this.graph.getEdgeStart(u); e < this.graph.getEdgeStart(u + 1); e++) {
+				int v = this.graph.getEdgeHead(e);
+				if (u != v) {
+					adj.get(u).add(v);
+					adj.get(v).add(u);
+				}
+			}
+		}
+
+		// Contract the node with the smallest degree first, the queue holds (degree << 32 | node)
+		PriorityQueue<Long> queue = new PriorityQueue<Long>();
+		for (int i = 0; i < n; i++) {
+			queue.add(((long) adj.get(i).size() << 32) | i);
+		}
+		this.rank = new int[n];
+		this.order = new int[n];
+		boolean[] contracted = new boolean[n];
+		int[][] upNeighbors = new int[n][];
+		int arcNum = 0;
+		int r = 0;
+		while (!queue.isEmpty()) {
+			long item = queue.poll();
+			int v = (int) item;
+			if (contracted[v] || (item >>> 32) != adj.get(v).size()) continue; // Outdated entry
+			contracted[v] = true;
+			this.rank[v] = r;
+			this.order[r] = v;
+			r++;
+			int[] neighbors = new int[adj.get(v).size()];
+			int i = 0;
+			for (int a : adj.get(v)) {
+				neighbors[i++] = a;
+			}
+			upNeighbors[v] = neighbors;
+			arcNum += neighbors.length;
+			for (int a : neighbors) {
+				adj.get(a).remove(v);
+			}
+			for (i = 0; i < neighbors.length; i++) {
+				for (int j = i + 1; j < neighbors.length; j++) {
+					if (adj.get(neighbors[i]).add(neighbors[j])) {
+						adj.get(neighbors[j]).add(neighbors[i]);
+					}
+				}
+			}
+			for (int a : neighbors) {
+				queue.add(((long) adj.get(a).size() << 32) | a);
+			}
+			adj.set(v, null);
+		}
+
+		this.arcStart = new int[n + 1];
+		this.arcTail = new int[arcNum];
+		this.arcHead = new int[arcNum];
+		int k = 0;
+		for (int v = 0; v < n; v++) {
+			this.arcStart[v] = k;
+			int[] neighbors = upNeighbors[v];
+			Long[] sorted = new Long[neighbors.length];
+			for (int i = 0; i < neighbors.length; i++) {
+				sorted[i] = ((long) this.rank[neighbors[i]] << 32) | neighbors[i];
+			}
+			Arrays.sort(sorted);
+			for (int i = 0; i < sorted.length; i++) {
+				this.arcTail[k] = v;
+				this.arcHead[k] = (int) sorted[i].longValue();
+				k++;
+			}
+		}
+		this.arcStart[n] = k;
+		this.upWeight = new double[arcNum];
+		this.downWeight = new double[arcNum];
+		this.upMid = new int[arcNum];
+		this.downMid = new int[arcNum];
+		this.upEdge = new int[arcNum];
+		this.downEdge = new int[arcNum];
+		this.indexArcs();
+		ContextCreator.logger.info("Contraction hierarchy built with " + arcNum + " arcs for " + this.graph.getEdgeNum()
+				+ " edges in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	// Index the original edges of each arc and the arcs coming from below each node, used by the partial customization
+	private void indexArcs() {
+		int n = this.getNodeNum();
+		int arcNum = this.arcTail.length;
+		int edgeNum = this.graph.getEdgeNum();
+		this.edgeArc = new int[edgeNum];
+		this.arcEdgeStart = new int[arcNum + 1];
+		for (int u = 0; u < n; u++) {
+			for (int e = this.graph.getEdgeStart(u); e < this.graph.getEdgeStart(u + 1); e++) {
+				int v = this.graph.getEdgeHead(e);
+				if (u == v) {
+					this.edgeArc[e] = -1;
+					continue;
+				}
+				this.edgeArc[e] = this.rank[u] < this.rank[v] ? this.findArc(u, v) : this.findArc(v, u);
+				this.arcEdgeStart[this.edgeArc[e] + 1]++;
+			}
+		}
+		for (int k = 0; k < arcNum; k++) {
+			this.arcEdgeStart[k + 1] += this.arcEdgeStart[k];
+		}
+		this.arcEdges = new int[this.arcEdgeStart[arcNum]];
+		int[] next = Arrays.copyOf(this.arcEdgeStart, arcNum);
+		for (int u = 0; u < n; u++) {
+			for (int e = this.graph.getEdgeStart(u); e < this.graph.getEdgeStart(u + 1); e++) {
+				int k = this.edgeArc[e];
+				if (k >= 0) {
+					this.arcEdges[next[k]++] = 2 * e + (this.arcTail[k] == u ? 1 : 0);
+				}
+			}
+		}
+
+		this.lowerStart = new int[n + 1];
+		for (int k = 0; k < arcNum; k++) {
+			this.lowerStart[this.arcHead[k] + 1]++;
+		}
+		for (int v = 0; v < n; v++) {
+			this.lowerStart[v + 1] += this.lowerStart[v];
+		}
+		this.lowerArcs = new int[arcNum];
+		next = Arrays.copyOf(this.lowerStart, n);
+		for (int r = 0; r < n; r++) { // Tails in rank order, so each list is sorted by rank
+			int v = this.order[r];
+			for (int k = this.arcStart[v]; k < this.arcStart[v + 1]; k++) {
+				this.lowerArcs[next[this.arcHead[k]]++] = k;
+			}
+		}
+	}
+
+	/**
+	 * Recompute the arc weights from the current edge weights of the RoadGraph
+	 */
+	public void customize() {
+		long startTime = System.currentTimeMillis();
+		Arrays.fill(this.upWeight, Double.MAX_VALUE);
+		Arrays.fill(this.downWeight, Double.MAX_VALUE);
+		Arrays.fill(this.upMid, -1);
+		Arrays.fill(this.downMid, -1);
+		Arrays.fill(this.upEdge, -1);
+		Arrays.fill(this.downEdge, -1);
+		for (int u = 0; u < this.graph.getNodeNum(); u++) {
+			for (int e = this.graph.getEdgeStart(u); e < this.graph.getEdgeStart(u + 1); e++) {
+				int v = this.graph.getEdgeHead(e);
+				double w = this.graph.getEdgeWeight(e);
+				if (u == v) continue;
+				if (this.rank[u] < this.rank[v]) {
+					int k = this.findArc(u, v);
+					if (w < this.upWeight[k]) {
+						this.upWeight[k] = w;
+						this.upEdge[k] = e;
+					}
+				} else {
+					int k = this.findArc(v, u);
+					if (w < this.downWeight[k]) {
+						this.downWeight[k] = w;
+						this.downEdge[k] = e;
+					}
+				}
+			}
+		}
+		// The arcs of a node only have lower triangles through lower ranked nodes, so they are final when the node is reached
+		for (int r = 0; r < this.order.length; r++) {
+			int v = this.order[r];
+			for (int i = this.arcStart[v]; i < this.arcStart[v + 1]; i++) {
+				for (int j = i + 1; j < this.arcStart[v + 1]; j++) {
+					int k = this.findArc(this.arcHead[i], this.arcHead[j]);
+					double w = this.downWeight[i] + this.upWeight[j];
+					if (w < this.upWeight[k]) {
+						this.upWeight[k] = w;
+						this.upMid[k] = v;
+					}
+					w = this.downWeight[j] + this.upWeight[i];
+					if (w < this.downWeight[k]) {
+						this.downWeight[k] = w;
+						this.downMid[k] = v;
+					}
+				}
+			}
+		}
+		ContextCreator.logger.debug("Contraction hierarchy customized in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	/**
+	 * Update the arc weights after the weights of some edges of the RoadGraph
+	 * are changed
+	 * @param edges Changed edges
+	 * @param edgeNum Number of entries of edges to use
+	 * @return int Number of arcs recomputed
+	 */
+	public int customize(int[] edges, int edgeNum) {
+		// An arc only depends on arcs with lower ranked tails, so arcs are recomputed by the rank of their tail
+		// and each of them at most once. The queue holds (rank of the tail << 32 | arc).
+		PriorityQueue<Long> queue = new PriorityQueue<Long>();
+		HashSet<Integer> queued = new HashSet<Integer>();
+		for (int i = 0; i < edgeNum; i++) {
+			int k = this.edgeArc[edges[i]];
+			if (k >= 0 && queued.add(k)) {
+				queue.add(((long) this.rank[this.arcTail[k]] << 32) | k);
+			}
+		}
+		int arcNum = 0;
+		while (!queue.isEmpty()) {
+			int k = (int) queue.poll().longValue();
+			arcNum++;
+			if (!this.recomputeArc(k)) continue;
+			// Arcs between the head of k and the other upper neighbors of its tail have a lower triangle through k
+			int v = this.arcTail[k];
+			int b = this.arcHead[k];
+			for (int j = this.arcStart[v]; j < this.arcStart[v + 1]; j++) {
+				if (j == k) continue;
+				int c = this.arcHead[j];
+				int k2 = this.rank[b] < this.rank[c] ? this.findArc(b, c) : this.findArc(c, b);
+				if (queued.add(k2)) {
+					queue.add(((long) this.rank[this.arcTail[k2]] << 32) | k2);
+				}
+			}
+		}
+		return arcNum;
+	}
+
+	// Recompute arc k from its edges and its lower triangles in the same order as customize(), true if a weight changed
+	private boolean recomputeArc(int k) {
+		double up = Double.MAX_VALUE;
+		double down = Double.MAX_VALUE;
+		int upE = -1;
+		int downE = -1;
+		int upM = -1;
+		int downM = -1;
+		for (int i = this.arcEdgeStart[k]; i < this.arcEdgeStart[k + 1]; i++) {
+			int e = this.arcEdges[i] >>> 1;
+			double w = this.graph.getEdgeWeight(e);
+			if ((this.arcEdges[i] & 1) == 1) {
+				if (w < up) {
+					up = w;
+					upE = e;
+				}
+			} else if (w < down) {
+				down = w;
+				downE = e;
+			}
+		}
+		// Lower triangles v -> a, v -> b are the common tails of the arcs coming into a and b
+		int a = this.arcTail[k];
+		int b = this.arcHead[k];
+		int i = this.lowerStart[a];
+		int j = this.lowerStart[b];
+		while (i < this.lowerStart[a + 1] && j < this.lowerStart[b + 1]) {
+			int va = this.rank[this.arcTail[this.lowerArcs[i]]];
+			int vb = this.rank[this.arcTail[this.lowerArcs[j]]];
+			if (va < vb) {
+				i++;
+			} else if (va > vb) {
+				j++;
+			} else {
+				int ia = this.lowerArcs[i];
+				int jb = this.lowerArcs[j];
+				double w = this.downWeight[ia] + this.upWeight[jb];
+				if (w < up) {
+					up = w;
+					upM = this.arcTail[ia];
+				}
+				w = this.downWeight[jb] + this.upWeight[ia];
+				if (w < down) {
+					down = w;
+					downM = this.arcTail[ia];
+				}
+				i++;
+				j++;
+			}
+		}
+		boolean changed = up != this.upWeight[k] || down != this.downWeight[k];
+		this.upWeight[k] = up;
+		this.downWeight[k] = down;
+		this.upEdge[k] = upE;
+		this.downEdge[k] = downE;
+		this.upMid[k] = upM;
+		this.downMid[k] = downM;
+		return changed;
+	}
+
+	// Arc between lower ranked node lo and higher ranked node hi
+	private int findArc(int lo, int hi) {
+		int target = this.rank[hi];
+		int left = this.arcStart[lo];
+		int right = this.arcStart[lo + 1] - 1;
+		while (left <= right) {
+			int mid = (left + right) >>> 1;
+			int midRank = this.rank[this.arcHead[mid]];
+			if (midRank < target) {
+				left = mid + 1;
+			} else if (midRank > target) {
+				right = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Unpack an arc into the IDs of the roads it stands for
+	 * @param arc Arc to unpack
+	 * @param up Whether the arc is travelled from its tail to its head
+	 * @param path Buffer for the road IDs
+	 * @param n Number of road IDs already in path
+	 * @param stack Buffer for the arcs to unpack, with at least as many entries as nodes
+	 * @return int Number of road IDs in path after unpacking
+	 */
+	int unpack(int arc, boolean up, int[] path, int n, int[] stack) {
+		int top = 0;
+		stack[top++] = 2 * arc + (up ? 1 : 0);
+		while (top > 0) {
+			int item = stack[--top];
+			int k = item >>> 1;
+			int tail = this.arcTail[k];
+			int head = this.arcHead[k];
+			if ((item & 1) == 1) { // From tail to head
+				int mid = this.upMid[k];
+				if (mid < 0) {
+					n = this.addRoad(this.upEdge[k], path, n);
+				} else { // tail -> mid -> head, pushed in reverse order
+					stack[top++] = 2 * this.findArc(mid, head) + 1;
+					stack[top++] = 2 * this.findArc(mid, tail);
+				}
+			} else { // From head to tail
+				int mid = this.downMid[k];
+				if (mid < 0) {
+					n = this.addRoad(this.downEdge[k], path, n);
+				} else { // head -> mid -> tail, pushed in reverse order
+					stack[top++] = 2 * this.findArc(mid, tail) + 1;
+					stack[top++] = 2 * this.findArc(mid, head);
+				}
+			}
+		}
+		return n;
+	}
+
+	private int addRoad(int edge, int[] path, int n) {
+		int road = this.graph.getEdgeRoad(edge);
+		if (road >= 0) {
+			path[n++] = road;
+		}
+		return n;
+	}
+
+	public int getNodeNum() {
+		return this.rank.length;
+	}
+
+	public int getArcStart(int v) {
+		return this.arcStart[v];
+	}
+
+	public int getArcTail(int k) {
+		return this.arcTail[k];
+	}
+
+	public int getArcHead(int k) {
+		return this.arcHead[k];
+	}
+
+	public double getUpWeight(int k) {
+		return this.upWeight[k];
+	}
+
+	public double getDownWeight(int k) {
+		return this.downWeight[k];
+	}
+}
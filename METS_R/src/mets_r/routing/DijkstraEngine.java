@@ -0,0 +1,104 @@
+package mets_r.routing;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra's shortest path search over a RoadGraph.
+ *
+ * All the working arrays are allocated once with the size of the graph. They
+ * are not cleared between two searches, instead each entry is stamped with the
+ * search it was written by, so a search only pays for the nodes it visits.
+ *
+ * An engine is not thread-safe, each thread should use its own engine (see
+ * VehicleRouting), while the RoadGraph is shared.
+ **/
+
+public class DijkstraEngine implements ShortestPathEngine {
+	private RoadGraph graph;
+	private double[] dist; // Distance from the source
+	private int[] parentEdge; // Last edge on the shortest path to the node
+	private int[] parentNode;
+	private int[] visitStamp; // The entries above are valid when it equals to stamp
+	private int stamp;
+	private NodeHeap heap;
+	private int[] pathBuffer;
+	private double lastDistance;
+
+	public DijkstraEngine(RoadGraph graph) {
+		int nodeNum = graph.getNodeNum();
+		this.graph = graph;
+		this.dist = new double[nodeNum];
+		this.parentEdge = new int[nodeNum];
+		this.parentNode = new int[nodeNum];
+		this.visitStamp = new int[nodeNum];
+		this.stamp = 0;
+		this.heap = new NodeHeap(this.dist);
+		this.pathBuffer = new int[nodeNum];
+		this.lastDistance = 0;
+	}
+
+	@Override
+	public int[] shortestPath(int source, int target) {
+		if (source < 0 || target < 0) return null;
+		this.newSearch();
+		this.reach(source, 0, -1, -1);
+		while (!this.heap.isEmpty()) {
+			int u = this.heap.pop();
+			if (u == target) {
+				this.lastDistance = this.dist[u];
+				return this.buildPath(source, target);
+			}
+			double du = this.dist[u];
+			for (int e = this.graph.getEdgeStart(u); e < this.graph.getEdgeStart(u + 1); e++) {
+				int v = this.graph.getEdgeHead(e);
+				double dv = du + this.graph.getEdgeWeight(e);
+				if (this.visitStamp[v] != this.stamp) {
+					this.reach(v, dv, e, u);
+				} else if (this.heap.isQueued(v) && dv < this.dist[v]) {
+					this.dist[v] = dv;
+					this.parentEdge[v] = e;
+					this.parentNode[v] = u;
+					this.heap.decreaseKey(v);
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public double getLastDistance() {
+		return this.lastDistance;
+	}
+
+	private void newSearch() {
+		if (this.stamp == Integer.MAX_VALUE) {
+			Arrays.fill(this.visitStamp, 0);
+			this.stamp = 0;
+		}
+		this.stamp++;
+		this.heap.clear();
+	}
+
+	private void reach(int v, double d, int e, int u) {
+		this.visitStamp[v] = this.stamp;
+		this.dist[v] = d;
+		this.parentEdge[v] = e;
+		this.parentNode[v] = u;
+		this.heap.push(v);
+	}
+
+	private int[] buildPath(int source, int target) {
+		int n = 0;
+		for (int v = target; v != source; v = this.parentNode[v]) {
+			int road = this.graph.getEdgeRoad(this.parentEdge[v]);
+			if (road >= 0) {
+				this.pathBuffer[n++] = road;
+			}
+		}
+		int[] path = new int[n];
+		for (int i = 0; i < n; i++) {
+			path[i] = this.pathBuffer[n - 1 - i];
+		}
+		return path;
+	}
+}
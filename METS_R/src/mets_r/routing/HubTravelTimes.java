@@ -0,0 +1,204 @@
+package mets_r.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import mets_r.ContextCreator;
+import mets_r.facility.Road;
+import mets_r.facility.Zone;
+
+/**
+ * Travel times and distances between the hubs and all zones for one hour.
+ *
+ * Instead of one shortest path per pair of zones, each hub builds one
+ * shortest path tree to all zones and one from all zones on the reversed
+ * graph, and the path lengths and travel times are summed along the trees.
+ * The trees of different hubs are built in parallel on the refresh threads of
+ * RouteContext, each reusing its tree between hours. The values are the same
+ * as the ones summed over RouteContext.shortestPathRoute between the
+ * coordinates of the zones: the roads of the origin and of the destination are
+ * included, and both values are 0 when there is no path.
+ *
+ * The values are read-only once computed and can be shared by all zones.
+ **/
+
+public class HubTravelTimes {
+	// Search arrays of each refresh thread, kept while the road graph stays the same
+	private static ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>();
+
+	private int hour;
+	private HashMap<Integer, Integer> zoneIndex; // Index of each zone ID in the arrays below
+	private HashMap<Integer, float[]> timeFromHub; // Travel time from the hub to each zone
+	private HashMap<Integer, float[]> distanceFromHub;
+	private HashMap<Integer, float[]> timeToHub; // Travel time from each zone to the hub
+	private HashMap<Integer, float[]> distanceToHub;
+
+	public HubTravelTimes(int hour) {
+		long startTime = System.currentTimeMillis();
+		this.hour = hour;
+		this.zoneIndex = new HashMap<Integer, Integer>();
+		this.timeFromHub = new HashMap<Integer, float[]>();
+		this.distanceFromHub = new HashMap<Integer, float[]>();
+		this.timeToHub = new HashMap<Integer, float[]>();
+		this.distanceToHub = new HashMap<Integer, float[]>();
+
+		// Roads of the zones, found the same way as in RouteContext.shortestPathRoute
+		List<Zone> zones = new ArrayList<Zone>();
+		for (Zone z : ContextCreator.getZoneContext().getAll()) {
+			zones.add(z);
+		}
+		int zoneNum = zones.size();
+		Road[] originRoads = new Road[zoneNum];
+		Road[] destRoads = new Road[zoneNum];
+		for (int i = 0; i < zoneNum; i++) {
+			Zone z = zones.get(i);
+			this.zoneIndex.put(z.getIntegerID(), i);
+			originRoads[i] = ContextCreator.getCityContext().findRoadAtCoordinates(z.getCoord(), false);
+			destRoads[i] = ContextCreator.getCityContext().findRoadAtCoordinates(z.getCoord(), true);
+		}
+		List<Integer> hubs = ContextCreator.getZoneContext().HUB_INDEXES;
+		for (int hubID : hubs) {
+			this.timeFromHub.put(hubID, new float[zoneNum]);
+			this.distanceFromHub.put(hubID, new float[zoneNum]);
+			this.timeToHub.put(hubID, new float[zoneNum]);
+			this.distanceToHub.put(hubID, new float[zoneNum]);
+		}
+		if (hubs.isEmpty()) return;
+
+		RoadGraph graph = RouteContext.vbr.roadGraph;
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int hubID : hubs) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					computeHub(graph, hubID, originRoads, destRoads);
+					return null;
+				}
+			});
+		}
+		RouteContext.runRefreshTasks(tasks);
+		ContextCreator.logger.info("Travel times of " + hubs.size() + " hubs to " + zoneNum + " zones for hour " + hour
+				+ " computed in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	// Fill the arrays of one hub from its two shortest path trees
+	private void computeHub(RoadGraph graph, int hubID, Road[] originRoads, Road[] destRoads) {
+		int h = this.zoneIndex.get(hubID);
+		Workspace workspace = workspaces.get();
+		if (workspace == null || workspace.graph != graph) {
+			workspace = new Workspace(graph);
+			workspaces.set(workspace);
+		}
+		ShortestPathTree tree = workspace.tree;
+		double[] length = workspace.length;
+		double[] time = workspace.time;
+		double[] result = new double[2];
+
+		// From the hub to the zones
+		Road hubRoad = originRoads[h];
+		int root = hubRoad == null ? -1 : graph.getNodeIndex(hubRoad.getDownStreamNode());
+		tree.build(root, false);
+		sumAlongTree(tree, length, time);
+		float[] times = this.timeFromHub.get(hubID);
+		float[] distances = this.distanceFromHub.get(hubID);
+		for (int i = 0; i < destRoads.length; i++) {
+			if (i == h || hubRoad == null || destRoads[i] == null) continue;
+			int node = graph.getNodeIndex(destRoads[i].getUpStreamNode());
+			pathValue(tree, root, node, hubRoad, destRoads[i], length, time, result);
+			distances[i] = (float) result[0];
+			times[i] = (float) result[1];
+		}
+
+		// From the zones to the hub
+		hubRoad = destRoads[h];
+		root = hubRoad == null ? -1 : graph.getNodeIndex(hubRoad.getUpStreamNode());
+		tree.build(root, true);
+		sumAlongTree(tree, length, time);
+		times = this.timeToHub.get(hubID);
+		distances = this.distanceToHub.get(hubID);
+		for (int i = 0; i < originRoads.length; i++) {
+			if (i == h || hubRoad == null || originRoads[i] == null) continue;
+			int node = graph.getNodeIndex(originRoads[i].getDownStreamNode());
+			pathValue(tree, root, node, originRoads[i], hubRoad, length, time, result);
+			distances[i] = (float) result[0];
+			times[i] = (float) result[1];
+		}
+	}
+
+	// Length and travel time of the roads between each reached node and the root
+	private static void sumAlongTree(ShortestPathTree tree, double[] length, double[] time) {
+		for (int i = 0; i < tree.getSettledNum(); i++) {
+			int v = tree.getSettledNode(i);
+			int parent = tree.getParentNode(v);
+			if (parent < 0) {
+				length[v] = 0;
+				time[v] = 0;
+				continue;
+			}
+			length[v] = length[parent];
+			time[v] = time[parent];
+			int roadID = tree.getParentRoad(v);
+			if (roadID >= 0) {
+				Road road = ContextCreator.getRoadContext().get(roadID);
+				length[v] += road.getLength();
+				time[v] += road.getTravelTime();
+			}
+		}
+	}
+
+	// Length and travel time of the path from originRoad to destRoad, following the cases of VehicleRouting.computeRoute
+	private static void pathValue(ShortestPathTree tree, int root, int node, Road originRoad, Road destRoad,
+			double[] length, double[] time, double[] result) {
+		if (root == node) { // Origin and destination is the same
+			result[0] = originRoad.getLength();
+			result[1] = originRoad.getTravelTime();
+		} else if (tree.isReached(node)) {
+			result[0] = originRoad.getLength() + length[node] + destRoad.getLength();
+			result[1] = originRoad.getTravelTime() + time[node] + destRoad.getTravelTime();
+		} else if (originRoad.getDownStreamRoads().contains(destRoad.getID())) {
+			result[0] = originRoad.getLength() + destRoad.getLength();
+			result[1] = originRoad.getTravelTime() + destRoad.getTravelTime();
+		} else {
+			result[0] = 0;
+			result[1] = 0;
+		}
+	}
+
+	public int getHour() {
+		return this.hour;
+	}
+
+	// Travel time from the hub to the zone, 0 if there is no path
+	public float getTimeFromHub(int hubID, int zoneID) {
+		return this.timeFromHub.get(hubID)[this.zoneIndex.get(zoneID)];
+	}
+
+	public float getDistanceFromHub(int hubID, int zoneID) {
+		return this.distanceFromHub.get(hubID)[this.zoneIndex.get(zoneID)];
+	}
+
+	// Travel time from the zone to the hub, 0 if there is no path
+	public float getTimeToHub(int zoneID, int hubID) {
+		return this.timeToHub.get(hubID)[this.zoneIndex.get(zoneID)];
+	}
+
+	public float getDistanceToHub(int zoneID, int hubID) {
+		return this.distanceToHub.get(hubID)[this.zoneIndex.get(zoneID)];
+	}
+
+	private static class Workspace {
+		private RoadGraph graph;
+		private ShortestPathTree tree;
+		private double[] length; // Length of the tree path between each node and the root
+		private double[] time;
+
+		private Workspace(RoadGraph graph) {
+			this.graph = graph;
+			this.tree = new ShortestPathTree(graph);
+			this.length = new double[graph.getNodeNum()];
+			this.time = new double[graph.getNodeNum()];
+		}
+	}
+}
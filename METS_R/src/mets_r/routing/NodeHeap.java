@@ -0,0 +1,99 @@
+package mets_r.routing;
+
+/**
+ * Binary min-heap of node indexes, keyed by an array owned by the routing
+ * engine (usually the distance array of the search).
+ *
+ * Positions are only tracked for the nodes pushed since the last clear, the
+ * engine is expected to know which nodes it has reached in the current search.
+ **/
+
+class NodeHeap {
+	private double[] keys;
+	private int[] heap;
+	private int[] heapPos; // Position of the node in the heap, -1 once the node is popped
+	private int size;
+
+	NodeHeap(double[] keys) {
+		this.keys = keys;
+		this.heap = new int[keys.length];
+		this.heapPos = new int[keys.length];
+		this.size = 0;
+	}
+
+	void clear() {
+		this.size = 0;
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	// Key of the top node, the heap must not be empty
+	double topKey() {
+		return this.keys[this.heap[0]];
+	}
+
+	// Whether the node is still in the heap, only valid for the nodes pushed since the last clear
+	boolean isQueued(int v) {
+		return this.heapPos[v] >= 0;
+	}
+
+	void push(int v) {
+		this.heap[this.size] = v;
+		this.heapPos[v] = this.size;
+		this.size++;
+		this.siftUp(this.size - 1);
+	}
+
+	// Restore the heap order after the key of v is decreased
+	void decreaseKey(int v) {
+		this.siftUp(this.heapPos[v]);
+	}
+
+	int pop() {
+		int top = this.heap[0];
+		this.heapPos[top] = -1;
+		this.size--;
+		if (this.size > 0) {
+			this.heap[0] = this.heap[this.size];
+			this.heapPos[this.heap[0]] = 0;
+			this.siftDown(0);
+		}
+		return top;
+	}
+
+	private void siftUp(int i) {
+		int v = this.heap[i];
+		double d = this.keys[v];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			int p = this.heap[parent];
+			if (this.keys[p] <= d) break;
+			this.heap[i] = p;
+			this.heapPos[p] = i;
+			i = parent;
+		}
+		this.heap[i] = v;
+		this.heapPos[v] = i;
+	}
+
+	private void siftDown(int i) {
+		int v = this.heap[i];
+		double d = this.keys[v];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.size) break;
+			if (child + 1 < this.size && this.keys[this.heap[child + 1]] < this.keys[this.heap[child]]) {
+				child++;
+			}
+			int c = this.heap[child];
+			if (this.keys[c] >= d) break;
+			this.heap[i] = c;
+			this.heapPos[c] = i;
+			i = child;
+		}
+		this.heap[i] = v;
+		this.heapPos[v] = i;
+	}
+}
@@ -0,0 +1,215 @@
+package mets_r.routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.ToIntFunction;
+
+import org.jgrapht.Graph;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import repast.simphony.space.graph.RepastEdge;
+import mets_r.ContextCreator;
+import mets_r.facility.Geodesy;
+import mets_r.facility.Node;
+
+/**
+ * Compact copy of the road graph in the compressed sparse row (CSR) format.
+ *
+ * Nodes are numbered from 0 to getNodeNum() - 1, the outgoing edges of node i
+ * are stored from getEdgeStart(i) to getEdgeStart(i + 1) - 1. Each edge keeps
+ * its head node, its weight and the ID of the road it stands for (-1 for the
+ * edges that connect two roads inside a junction). The incoming edges of node
+ * i are listed from getInEdgeStart(i) to getInEdgeStart(i + 1) - 1 for
+ * searches on the reversed graph.
+ *
+ * Nodes also keep the coordinates of their junction, which give a lower bound
+ * of the travel time between two nodes for goal-directed searches.
+ *
+ * The structure is fixed once built, only the edge weights are updated by
+ * setEdgeWeight, which also writes them to the RepastEdge of the road network.
+ * It is shared by the routing engines of all threads.
+ **/
+
+public class RoadGraph {
+	private Node[] nodes;
+	private HashMap<Node, Integer> nodeIndex;
+	private int[] edgeStart;
+	private int[] edgeHead;
+	private int[] edgeTail;
+	private int[] inEdgeStart;
+	private int[] inEdges; // Incoming edges of each node
+	private int[] edgeRoad;
+	private double[] edgeWeight;
+	private RepastEdge<Node>[] edges; // Edge of the road network each edge stands for
+	private HashMap<Integer, Integer> roadEdge; // Edge of each road
+	private double[] nodeX; // Longitude of the node
+	private double[] nodeY; // Latitude of the node
+	private boolean hasCoords; // Whether all nodes have coordinates
+	private double maxSpeed; // Largest straight-line distance over travel time among all edges
+
+	public RoadGraph(Graph<Node, RepastEdge<Node>> graph) {
+		this(graph, edge -> ContextCreator.getCityContext().getRoadIDFromEdge(edge));
+	}
+
+	/**
+	 * @param graph Road network
+	 * @param edgeRoad Road ID of each edge of the network, -1 for the edges inside a junction
+	 */
+	@SuppressWarnings("unchecked")
+	RoadGraph(Graph<Node, RepastEdge<Node>> graph, ToIntFunction<RepastEdge<Node>> edgeRoad) {
+		int nodeNum = graph.vertexSet().size();
+		int edgeNum = graph.edgeSet().size();
+		this.nodes = new Node[nodeNum];
+		this.nodeIndex = new HashMap<Node, Integer>();
+		this.edgeStart = new int[nodeNum + 1];
+		this.edgeHead = new int[edgeNum];
+		this.edgeTail = new int[edgeNum];
+		this.edgeRoad = new int[edgeNum];
+		this.edgeWeight = new double[edgeNum];
+		this.edges = (RepastEdge<Node>[]) new RepastEdge[edgeNum];
+		this.roadEdge = new HashMap<Integer, Integer>();
+		this.nodeX = new double[nodeNum];
+		this.nodeY = new double[nodeNum];
+		this.hasCoords = true;
+
+		int i = 0;
+		for (Node node : graph.vertexSet()) {
+			this.nodes[i] = node;
+			this.nodeIndex.put(node, i);
+			Coordinate coord = node.getJunction() == null ? null : node.getJunction().getCoord();
+			if (coord != null) {
+				this.nodeX[i] = coord.x;
+				this.nodeY[i] = coord.y;
+			} else {
+				this.hasCoords = false;
+			}
+			i++;
+		}
+		int e = 0;
+		for (i = 0; i < nodeNum; i++) {
+			this.edgeStart[i] = e;
+			for (RepastEdge<Node> edge : graph.outgoingEdgesOf(this.nodes[i])) {
+				this.edgeHead[e] = this.nodeIndex.get(graph.getEdgeTarget(edge));
+				this.edgeTail[e] = i;
+				this.edgeRoad[e] = edgeRoad.applyAsInt(edge);
+				this.edgeWeight[e] = graph.getEdgeWeight(edge);
+				this.edges[e] = edge;
+				if (this.edgeRoad[e] >= 0) {
+					this.roadEdge.put(this.edgeRoad[e], e);
+				}
+				e++;
+			}
+		}
+		this.edgeStart[nodeNum] = e;
+		this.inEdgeStart = new int[nodeNum + 1];
+		for (e = 0; e < edgeNum; e++) {
+			this.inEdgeStart[this.edgeHead[e] + 1]++;
+		}
+		for (i = 0; i < nodeNum; i++) {
+			this.inEdgeStart[i + 1] += this.inEdgeStart[i];
+		}
+		this.inEdges = new int[edgeNum];
+		int[] next = Arrays.copyOf(this.inEdgeStart, nodeNum);
+		for (e = 0; e < edgeNum; e++) {
+			this.inEdges[next[this.edgeHead[e]]++] = e;
+		}
+		this.updateSpeedBound();
+	}
+
+	/**
+	 * Recompute the largest straight-line speed over all edges. setEdgeWeight
+	 * only raises it, which keeps getTravelTimeBound a lower bound, so this is
+	 * only needed to tighten the bound again.
+	 */
+	public void updateSpeedBound() {
+		double speed = 0;
+		if (this.hasCoords) {
+			for (int u = 0; u < this.getNodeNum(); u++) {
+				for (int e = this.edgeStart[u]; e < this.edgeStart[u + 1]; e++) {
+					speed = Math.max(speed, this.getEdgeSpeed(u, e));
+				}
+			}
+		}
+		this.maxSpeed = speed;
+	}
+
+	// Straight-line speed of edge e from node u
+	private double getEdgeSpeed(int u, int e) {
+		double dist = this.getStraightDistance(u, this.edgeHead[e]);
+		if (dist <= 0) return 0;
+		return this.edgeWeight[e] > 0 ? dist / this.edgeWeight[e] : Double.POSITIVE_INFINITY;
+	}
+
+	private double getStraightDistance(int u, int v) {
+		return Geodesy.distance(this.nodeX[u], this.nodeY[u], this.nodeX[v], this.nodeY[v]);
+	}
+
+	// Lower bound of the travel time from node u to node v, 0 when there is no usable bound
+	public double getTravelTimeBound(int u, int v) {
+		if (this.maxSpeed <= 0 || Double.isInfinite(this.maxSpeed)) return 0;
+		// Keep a small margin for the rounding of the distances
+		return 0.999 * this.getStraightDistance(u, v) / this.maxSpeed;
+	}
+
+	public void setEdgeWeight(int e, double weight) {
+		boolean faster = weight < this.edgeWeight[e];
+		this.edgeWeight[e] = weight;
+		this.edges[e].setWeight(weight);
+		if (this.hasCoords && faster) {
+			this.maxSpeed = Math.max(this.maxSpeed, this.getEdgeSpeed(this.edgeTail[e], e));
+		}
+	}
+
+	// Edge of the road, -1 if the road is not in the graph
+	public int getRoadEdge(int roadID) {
+		Integer e = this.roadEdge.get(roadID);
+		return e == null ? -1 : e;
+	}
+
+	// Index of the node, -1 if the node is not in the graph
+	public int getNodeIndex(Node node) {
+		Integer index = this.nodeIndex.get(node);
+		return index == null ? -1 : index;
+	}
+
+	public Node getNode(int i) {
+		return this.nodes[i];
+	}
+
+	public int getNodeNum() {
+		return this.nodes.length;
+	}
+
+	public int getEdgeNum() {
+		return this.edgeHead.length;
+	}
+
+	public int getEdgeStart(int i) {
+		return this.edgeStart[i];
+	}
+
+	public int getEdgeHead(int e) {
+		return this.edgeHead[e];
+	}
+
+	public int getEdgeTail(int e) {
+		return this.edgeTail[e];
+	}
+
+	public int getInEdgeStart(int i) {
+		return this.inEdgeStart[i];
+	}
+
+	public int getInEdge(int k) {
+		return this.inEdges[k];
+	}
+
+	public int getEdgeRoad(int e) {
+		return this.edgeRoad[e];
+	}
+
+	public double getEdgeWeight(int e) {
+		return this.edgeWeight[e];
+	}
+}
@@ -0,0 +1,76 @@
+package mets_r.routing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of shortest paths, keyed by the origin and destination roads
+ * and valid for one version of the network weights.
+ *
+ * Each version of the weights has its own map. newVersion() swaps in an empty
+ * map, so paths found with the old weights are never returned, even if a
+ * thread is still adding one to the old map. Once the map holds maxSize paths,
+ * new paths are not added until the next version.
+ *
+ * Paths are stored as arrays of road IDs and must not be modified by callers.
+ **/
+
+public class RouteCache {
+	private volatile ConcurrentHashMap<Long, int[]> routes;
+	private volatile int version;
+	private int maxSize;
+	private LongAdder hits;
+	private LongAdder misses;
+
+	public RouteCache(int maxSize) {
+		this.routes = new ConcurrentHashMap<Long, int[]>();
+		this.version = 0;
+		this.maxSize = maxSize;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	public static long getKey(int originRoad, int destRoad) {
+		return ((long) originRoad << 32) | (destRoad & 0xFFFFFFFFL);
+	}
+
+	// Cached path between two roads, null if there is none for the current version
+	public int[] get(long key) {
+		int[] path = this.routes.get(key);
+		if (path != null) {
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+		}
+		return path;
+	}
+
+	public void put(long key, int[] path) {
+		ConcurrentHashMap<Long, int[]> current = this.routes;
+		if (current.size() < this.maxSize) {
+			current.put(key, path);
+		}
+	}
+
+	// Drop all paths, called when the network weights are changed
+	public void newVersion() {
+		this.routes = new ConcurrentHashMap<Long, int[]>();
+		this.version++;
+	}
+
+	public int getVersion() {
+		return this.version;
+	}
+
+	public int size() {
+		return this.routes.size();
+	}
+
+	public long getAndResetHits() {
+		return this.hits.sumThenReset();
+	}
+
+	public long getAndResetMisses() {
+		return this.misses.sumThenReset();
+	}
+}
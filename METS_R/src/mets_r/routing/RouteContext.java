@@ -3,6 +3,11 @@ package mets_r.routing;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -20,6 +25,9 @@ public class RouteContext {
 	// entire space), not sure if these values are any good
 	public static double little_buffer_distance; 
 	public static double big_buffer_distance;
+	
+	// Threads of the travel time refreshes, kept alive so that each keeps its routing engine
+	private static ExecutorService refreshExecutor;
 
 	/* Initialize route object */
 	public static void createRoute(){
@@ -29,9 +37,47 @@ public class RouteContext {
 		big_buffer_distance = 100;
 	}
 
-	/* Update the node based routing object, update the next nearest node matrix */
-	public static void setEdgeWeight(Node node1, Node node2, double weight) {
-		vbr.setEdgeWeight(node1, node2, weight);
+	/* Record the new travel time of a road for the next update of the routing engine */
+	public static boolean setRoadWeight(Road road, double weight) {
+		return vbr.setRoadWeight(road, weight);
+	}
+
+	/* Weight of the road used by the routing engine */
+	public static double getRoadWeight(int roadID) {
+		return vbr.getRoadWeight(roadID);
+	}
+
+	/* Update the network and the routing engine once all the road weights are set */
+	public static void updateEngineWeights() {
+		vbr.updateEngineWeights();
+	}
+	
+	/**
+	 * Run the tasks on the refresh threads and wait for all of them
+	 * @throws RuntimeException if a task fails or the wait is interrupted
+	 */
+	public static void runRefreshTasks(List<Callable<Void>> tasks) {
+		ExecutorService executor;
+		synchronized (RouteContext.class) {
+			if (refreshExecutor == null) {
+				refreshExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+					Thread thread = new Thread(r, "travel-time-refresh");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			executor = refreshExecutor;
+		}
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while refreshing the travel times", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Cannot refresh the travel times", e.getCause());
+		}
 	}
 	
 	public static List<Road> shortestPathRoute(Road originRoad, Road destRoad, Random rand){
@@ -60,7 +106,11 @@ public class RouteContext {
 
 		Road originRoad = ContextCreator.getCityContext().findRoadAtCoordinates(originCoord, false);
 		Road destRoad = ContextCreator.getCityContext().findRoadAtCoordinates(destCoord, true);
+		return UCBRoute(originRoad, destRoad);
+	}
 
+	/* Candidate routes between two resolved roads, safe to call from several threads */
+	public static List<List<Integer>> UCBRoute(Road originRoad, Road destRoad) throws Exception {
 		Node originDownstreamNode = originRoad.getDownStreamNode();
 		Node destUpstreamNode = destRoad.getUpStreamNode();
 		
@@ -87,16 +137,57 @@ public class RouteContext {
 		if (choice < 0) {
 			return new Pair<>(new ArrayList<Road>(), -1); // Empty route
 		}
-		List<Integer> path = (ContextCreator.route_UCB.get(key)).get(choice);
+		CandidateRouteStore routes = ContextCreator.route_UCB;
+		int od = routes.indexOf(origin, destination);
+		if (od < 0 || choice >= routes.getRouteNum(od)) {
+			return new Pair<>(new ArrayList<Road>(), -1); // Empty route
+		}
 		// Return a list of link
 		List<Road> result = new ArrayList<Road>();
-		for (int link_id : path) {
-			result.add(ContextCreator.getRoadContext().get(link_id));
+		for (int j = 0; j < routes.getRoadNum(od, choice); j++) {
+			result.add(ContextCreator.getRoadContext().get(routes.getRoadID(od, choice, j)));
 		}
 		Pair<List<Road>, Integer> final_result = new Pair<>(result, choice);
 		return final_result;
 	}
 
+	/**
+	 * Draw one of the candidate routes by the logit model on their current costs.
+	 * The candidate routes are found between the roads next to the zone centroids,
+	 * so they are only used if all of them start at originRoad and end at or right
+	 * before destRoad. This is checked before the random draw, so the random
+	 * stream does not depend on whether the route is used.
+	 * @return List<Road> Route ending at destRoad, empty if the candidate routes cannot be used
+	 */
+	public static List<Road> logitRoute(Road originRoad, Road destRoad, int origin, int destination, Random rand) {
+		List<Road> result = new ArrayList<Road>();
+		CandidateRouteStore routes = ContextCreator.route_UCB;
+		int od = routes.indexOf(origin, destination);
+		if (od < 0 || !routes.hasCosts() || routes.getRouteNum(od) == 0) {
+			return result;
+		}
+		for (int k = 0; k < routes.getRouteNum(od); k++) {
+			int roadNum = routes.getRoadNum(od, k);
+			if (roadNum == 0 || routes.getRoadID(od, k, 0) != originRoad.getID()) {
+				return result;
+			}
+			int lastRoad = routes.getRoadID(od, k, roadNum - 1);
+			if (lastRoad != destRoad.getID()
+					&& !ContextCreator.getRoadContext().get(lastRoad).getDownStreamRoads().contains(destRoad.getID())) {
+				return result;
+			}
+		}
+		int choice = routes.chooseRoute(od, GlobalVariables.THETA_LOGIT, rand.nextDouble());
+		for (int j = 0; j < routes.getRoadNum(od, choice); j++) {
+			result.add(ContextCreator.getRoadContext().get(routes.getRoadID(od, choice, j)));
+		}
+		// Candidate routes stop at the upstream junction of the destination road, shortestPathRoute ends with it
+		if (result.get(result.size() - 1) != destRoad) {
+			result.add(destRoad);
+		}
+		return result;
+	}
+
 	// Use ecoRoute to decide route, uncommented this if you want to test eco-routing for buses
 	public static Pair<List<Road>, Integer> ecoRouteBus(Road originRoad, int origin, int destination) {
 		String key = Integer.toString(origin) + ',' + destination;
@@ -107,12 +198,16 @@ public class RouteContext {
 		if (choice < 0) {
 			return new Pair<>(new ArrayList<Road>(), -1); // Empty route
 		}
-		List<Integer> path = (ContextCreator.route_UCB_bus.get(key)).get(choice);
+		CandidateRouteStore routes = ContextCreator.route_UCB_bus;
+		int od = routes.indexOf(origin, destination);
+		if (od < 0 || choice >= routes.getRouteNum(od)) {
+			return new Pair<>(new ArrayList<Road>(), -1); // Empty route
+		}
 
 		// Return a list of link
 		List<Road> result = new ArrayList<Road>();
-		for (int link_id : path) {
-			result.add(ContextCreator.getRoadContext().get(link_id));
+		for (int j = 0; j < routes.getRoadNum(od, choice); j++) {
+			result.add(ContextCreator.getRoadContext().get(routes.getRoadID(od, choice, j)));
 		}
 		Pair<List<Road>, Integer> final_result = new Pair<>(result, choice);
 		return final_result;
@@ -0,0 +1,21 @@
+package mets_r.routing;
+
+/**
+ * A single shortest path backend over the shared RoadGraph.
+ *
+ * Engines keep per-search state, so an engine must only be used by one thread.
+ * VehicleRouting gives each thread its own engine.
+ **/
+
+public interface ShortestPathEngine {
+	/**
+	 * Find the shortest path between two nodes
+	 * @param source Index of the origin node in the RoadGraph
+	 * @param target Index of the destination node in the RoadGraph
+	 * @return int[] IDs of the roads on the path in order, null if the target cannot be reached
+	 */
+	public int[] shortestPath(int source, int target);
+
+	// Cost of the path found by the last successful shortestPath call
+	public double getLastDistance();
+}
@@ -0,0 +1,112 @@
+package mets_r.routing;
+
+import java.util.Arrays;
+
+/**
+ * Shortest paths from one root to all nodes of a RoadGraph, or from all nodes
+ * to the root on the reversed graph, found by a single Dijkstra search.
+ *
+ * Each reached node keeps its parent, the next node toward the root, and the
+ * road of the edge between them. Nodes are also listed in the order they are
+ * settled, so values can be summed along the tree by visiting the nodes in
+ * that order, as the parent of a node is always settled before it.
+ *
+ * Working arrays are reused across searches with version stamps like in
+ * DijkstraEngine, so a tree must only be used by one thread.
+ **/
+
+public class ShortestPathTree {
+	private RoadGraph graph;
+	private double[] dist; // Distance between the root and the node
+	private int[] parentEdge;
+	private int[] parentNode;
+	private int[] visitStamp; // The entries above are valid when it equals to stamp
+	private int stamp;
+	private NodeHeap heap;
+	private int[] settled; // Nodes in the order they are settled
+	private int settledNum;
+
+	public ShortestPathTree(RoadGraph graph) {
+		int nodeNum = graph.getNodeNum();
+		this.graph = graph;
+		this.dist = new double[nodeNum];
+		this.parentEdge = new int[nodeNum];
+		this.parentNode = new int[nodeNum];
+		this.visitStamp = new int[nodeNum];
+		this.stamp = 0;
+		this.heap = new NodeHeap(this.dist);
+		this.settled = new int[nodeNum];
+		this.settledNum = 0;
+	}
+
+	/**
+	 * Search all nodes from the root
+	 * @param root Root node
+	 * @param reverse Whether the paths go from the nodes to the root instead of from the root to the nodes
+	 */
+	public void build(int root, boolean reverse) {
+		if (this.stamp == Integer.MAX_VALUE) {
+			Arrays.fill(this.visitStamp, 0);
+			this.stamp = 0;
+		}
+		this.stamp++;
+		this.heap.clear();
+		this.settledNum = 0;
+		if (root < 0) return;
+		this.reach(root, 0, -1, -1);
+		while (!this.heap.isEmpty()) {
+			int u = this.heap.pop();
+			this.settled[this.settledNum++] = u;
+			double du = this.dist[u];
+			int start = reverse ? this.graph.getInEdgeStart(u) : this.graph.getEdgeStart(u);
+			int end = reverse ? this.graph.getInEdgeStart(u + 1) : this.graph.getEdgeStart(u + 1);
+			for (int k = start; k < end; k++) {
+				int e = reverse ? this.graph.getInEdge(k) : k;
+				int v = reverse ? this.graph.getEdgeTail(e) : this.graph.getEdgeHead(e);
+				double dv = du + this.graph.getEdgeWeight(e);
+				if (this.visitStamp[v] != this.stamp) {
+					this.reach(v, dv, e, u);
+				} else if (this.heap.isQueued(v) && dv < this.dist[v]) {
+					this.dist[v] = dv;
+					this.parentEdge[v] = e;
+					this.parentNode[v] = u;
+					this.heap.decreaseKey(v);
+				}
+			}
+		}
+	}
+
+	private void reach(int v, double d, int e, int u) {
+		this.visitStamp[v] = this.stamp;
+		this.dist[v] = d;
+		this.parentEdge[v] = e;
+		this.parentNode[v] = u;
+		this.heap.push(v);
+	}
+
+	public boolean isReached(int v) {
+		return v >= 0 && this.visitStamp[v] == this.stamp;
+	}
+
+	public double getDistance(int v) {
+		return this.dist[v];
+	}
+
+	// Next node toward the root, -1 for the root
+	public int getParentNode(int v) {
+		return this.parentNode[v];
+	}
+
+	// Road between the node and its parent, -1 for the root or an edge inside a junction
+	public int getParentRoad(int v) {
+		return this.parentEdge[v] < 0 ? -1 : this.graph.getEdgeRoad(this.parentEdge[v]);
+	}
+
+	public int getSettledNum() {
+		return this.settledNum;
+	}
+
+	public int getSettledNode(int i) {
+		return this.settled[i];
+	}
+}
@@ -1,10 +1,10 @@
 package mets_r.routing;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
-import org.jgrapht.alg.shortestpath.BidirectionalDijkstraShortestPath;
 import org.jgrapht.alg.shortestpath.YenKShortestPath;
 import org.jgrapht.graph.DefaultDirectedWeightedGraph;
 import org.jgrapht.GraphPath;
@@ -21,6 +21,13 @@ import mets_r.facility.Road;
 
 public class VehicleRouting {
 	public DefaultDirectedWeightedGraph<Node, RepastEdge<Node>> transformedNetwork = null;
+	public RoadGraph roadGraph = null; // Compact copy of transformedNetwork for the single shortest path
+	public ContractionHierarchy contractionHierarchy = null; // Only built when SHORTEST_PATH_ALGORITHM is CH
+	private ThreadLocal<ShortestPathEngine> engines; // Each thread reuses its own search arrays
+	public RouteCache routeCache = null; // Shortest paths found since the last weight update, null if disabled
+	private int[] deltaEdges; // Edges with a new weight not yet given to the engines
+	private double[] deltaWeights;
+	private int deltaNum;
 
 	@SuppressWarnings({"unchecked", "rawtypes"})
 	public VehicleRouting(Network<Node> roadNetwork) {
@@ -31,11 +38,147 @@ public class VehicleRouting {
 			graphA = ((ContextJungNetwork) roadNetwork).getGraph();
 		NodeToJgraph<Node> converter = new NodeToJgraph<Node>();
 		transformedNetwork = converter.convertToJgraph(graphA);
+		roadGraph = new RoadGraph(transformedNetwork);
+		if ("CH".equals(GlobalVariables.SHORTEST_PATH_ALGORITHM)) {
+			contractionHierarchy = new ContractionHierarchy(roadGraph);
+			contractionHierarchy.customize();
+		}
+		engines = new ThreadLocal<ShortestPathEngine>() {
+			@Override
+			protected ShortestPathEngine initialValue() {
+				return createEngine();
+			}
+		};
+		if (!(engines.get() instanceof DijkstraEngine)) {
+			verifyEngine(roadGraph, createEngine(), 100);
+		}
+		if (GlobalVariables.ROUTE_CACHE_SIZE > 0) {
+			routeCache = new RouteCache(GlobalVariables.ROUTE_CACHE_SIZE);
+		}
+		deltaEdges = new int[roadGraph.getEdgeNum()];
+		deltaWeights = new double[roadGraph.getEdgeNum()];
+		deltaNum = 0;
+	}
+
+	private ShortestPathEngine createEngine() {
+		if (contractionHierarchy != null) {
+			return new CHEngine(contractionHierarchy);
+		}
+		if ("ASTAR".equals(GlobalVariables.SHORTEST_PATH_ALGORITHM)) {
+			return new AStarEngine(roadGraph);
+		}
+		return new DijkstraEngine(roadGraph);
+	}
+
+	/**
+	 * Compare the path costs of an engine with Dijkstra's algorithm on random node pairs
+	 * @param roadGraph Graph the engine searches
+	 * @param engine Engine to verify
+	 * @param sampleNum Number of node pairs
+	 * @throws IllegalStateException if a path cost differs, as the engine would give wrong routes
+	 */
+	static void verifyEngine(RoadGraph roadGraph, ShortestPathEngine engine, int sampleNum) {
+		if (roadGraph.getNodeNum() == 0) return;
+		DijkstraEngine reference = new DijkstraEngine(roadGraph);
+		Random rand = new Random(0); // Separate from the simulation random seeds
+		int mismatchNum = 0;
+		for (int i = 0; i < sampleNum; i++) {
+			int source = rand.nextInt(roadGraph.getNodeNum());
+			int target = rand.nextInt(roadGraph.getNodeNum());
+			int[] path = engine.shortestPath(source, target);
+			int[] referencePath = reference.shortestPath(source, target);
+			if ((path == null) != (referencePath == null)) {
+				mismatchNum++;
+			} else if (path != null && Math.abs(engine.getLastDistance() - reference.getLastDistance()) > 1e-6
+					* Math.max(1.0, reference.getLastDistance())) {
+				mismatchNum++;
+			}
+		}
+		if (mismatchNum > 0) {
+			throw new IllegalStateException(engine.getClass().getSimpleName() + " path costs differ from Dijkstra for "
+					+ mismatchNum + " out of " + sampleNum + " node pairs");
+		}
+		ContextCreator.logger.info("Shortest path costs match Dijkstra for " + sampleNum + " node pairs");
+	}
+
+	/**
+	 * Record the new travel time of a road, applied by updateEngineWeights.
+	 * Changes within ROUTING_WEIGHT_EPSILON of the weight used by the engines
+	 * are dropped, so the weight only moves once the change adds up.
+	 * @return boolean Whether the change is kept
+	 */
+	public boolean setRoadWeight(Road road, double weight) {
+		int e = roadGraph.getRoadEdge(road.getID());
+		if (e < 0) return false;
+		double oldWeight = roadGraph.getEdgeWeight(e);
+		if (Math.abs(weight - oldWeight) <= GlobalVariables.ROUTING_WEIGHT_EPSILON * oldWeight) return false;
+		if (deltaNum == deltaEdges.length) { // The same road is set twice before an update
+			deltaEdges = Arrays.copyOf(deltaEdges, 2 * deltaNum);
+			deltaWeights = Arrays.copyOf(deltaWeights, 2 * deltaNum);
+		}
+		deltaEdges[deltaNum] = e;
+		deltaWeights[deltaNum] = weight;
+		deltaNum++;
+		return true;
+	}
+
+	// Weight of the road used by the routing engines, its travel time if the road is not in the graph
+	public double getRoadWeight(int roadID) {
+		int e = roadGraph.getRoadEdge(roadID);
+		return e < 0 ? ContextCreator.getRoadContext().get(roadID).getTravelTime() : roadGraph.getEdgeWeight(e);
+	}
+
+	// Bring the network and the routing engine up to date with the weights recorded by setRoadWeight
+	public void updateEngineWeights() {
+		long startTime = System.currentTimeMillis();
+		int changeNum = deltaNum;
+		for (int i = 0; i < deltaNum; i++) {
+			roadGraph.setEdgeWeight(deltaEdges[i], deltaWeights[i]);
+			int roadID = roadGraph.getEdgeRoad(deltaEdges[i]);
+			ContextCreator.route_UCB.updateRoadCost(roadID, deltaWeights[i]);
+			ContextCreator.route_UCB_bus.updateRoadCost(roadID, deltaWeights[i]);
+		}
+		deltaNum = 0;
+		if (changeNum == 0) return;
+		if ("ASTAR".equals(GlobalVariables.SHORTEST_PATH_ALGORITHM)) {
+			// setEdgeWeight only raises the speed bound, tighten it again once per update
+			roadGraph.updateSpeedBound();
+		}
+		if (contractionHierarchy != null) {
+			int arcNum = contractionHierarchy.customize(deltaEdges, changeNum);
+			ContextCreator.logger.debug("Contraction hierarchy recomputed " + arcNum + " arcs for " + changeNum + " edges");
+		}
+		if (routeCache != null) {
+			ContextCreator.logger.info("Route cache version " + routeCache.getVersion() + ": " + routeCache.getAndResetHits()
+					+ " hits, " + routeCache.getAndResetMisses() + " misses, " + routeCache.size() + " routes");
+			routeCache.newVersion();
+		}
+		ContextCreator.logger.info("Routing weights of " + changeNum + " out of " + roadGraph.getEdgeNum()
+				+ " edges updated in " + (System.currentTimeMillis() - startTime) + " ms");
 	}
 
-	public void setEdgeWeight(Node node1, Node node2, double weight) {
-//		ContextCreator.logger.info("Node 1" + node1.getID() + " Node 2" + node2.getID() + " Weight " + weight); 
-		transformedNetwork.setEdgeWeight(transformedNetwork.getEdge(node1, node2), weight);
+	/**
+	 * Shortest path between two nodes using the engine of the current thread
+	 * @return int[] IDs of the roads on the path, null if there is no path
+	 */
+	public int[] shortestPath(Node currNode, Node destNode) {
+		return engines.get().shortestPath(roadGraph.getNodeIndex(currNode), roadGraph.getNodeIndex(destNode));
+	}
+
+	// Same as shortestPath, but reuses the path found between the same roads since the last weight update
+	private int[] cachedShortestPath(Road currentRoad, Road destRoad, Node currNode, Node destNode) {
+		if (routeCache == null) {
+			return this.shortestPath(currNode, destNode);
+		}
+		long key = RouteCache.getKey(currentRoad.getID(), destRoad.getID());
+		int[] path = routeCache.get(key);
+		if (path == null) {
+			path = this.shortestPath(currNode, destNode);
+			if (path != null) {
+				routeCache.put(key, path);
+			}
+		}
+		return path;
 	}
 
 	public List<List<Road>> computeKRoute(int K, Road currentRoad, Road destRoad, Node currNode,
@@ -69,6 +212,7 @@ public class VehicleRouting {
 	public List<Road> computeRoute(Road currentRoad, Road destRoad, Node currNode, Node destNode, Random rand) {
 		List<Road> roadPath_ = null;
 		List<RepastEdge<Node>> shortestPath = null;
+		int[] roadIDs = null;
 
 		// Get the edges that make up the shortest path
 		int K = GlobalVariables.K_VALUE;
@@ -85,56 +229,45 @@ public class VehicleRouting {
 						transformedNetwork);
 				List<GraphPath<Node, RepastEdge<Node>>> kshortestPath = ksp.getPaths(currNode, destNode, K);
 	
-				List<Double> pathLength = new ArrayList<Double>();
-				List<Double> pathProb = new ArrayList<Double>();
-				List<Double> cumProb = new ArrayList<Double>();
-				double total = 0.0;
-	
+				// Logit choice over the path weights, relative to the shortest one to avoid underflow
+				double minLength = Double.MAX_VALUE;
 				for (GraphPath<Node, RepastEdge<Node>> kpath : kshortestPath) {
-					pathLength.add(kpath.getWeight());
+					minLength = Math.min(minLength, kpath.getWeight());
 				}
-				for (int i = 0; i < kshortestPath.size(); i++) {
-					total = total + Math.exp(-theta * pathLength.get(i));
-				}
-	
-				// Calculate the probability
-				for (int i = 0; i < kshortestPath.size(); i++) {
-					double prob = Math.exp(-theta * pathLength.get(i)) / total;
-					pathProb.add(prob);
-					if (i == 0)
-						cumProb.add(i, prob);
-					else
-						cumProb.add(i, cumProb.get(i - 1) + prob);
+				double total = 0.0;
+				for (GraphPath<Node, RepastEdge<Node>> kpath : kshortestPath) {
+					total += Math.exp(-theta * (kpath.getWeight() - minLength));
 				}
 	
 				// Find the path to go
 				int k = 0;
-				double random = rand.nextDouble();
+				double target = rand.nextDouble() * total;
+				double cumProb = 0.0;
 				for (int i = 0; i < kshortestPath.size(); i++) {
-					if (random < cumProb.get(i)) {
+					cumProb += Math.exp(-theta * (kshortestPath.get(i).getWeight() - minLength));
+					if (target < cumProb) {
 						k = i;
 						break;
 					}
 				}
 				shortestPath = kshortestPath.get(k).getEdgeList();
+				roadIDs = new int[shortestPath.size()];
+				for (int i = 0; i < shortestPath.size(); i++) {
+					roadIDs[i] = ContextCreator.getCityContext().getRoadIDFromEdge(shortestPath.get(i));
+				}
 	
 			} else { // Single shortest path
-				try {
-					BidirectionalDijkstraShortestPath<Node, RepastEdge<Node>> sp = new BidirectionalDijkstraShortestPath<Node, RepastEdge<Node>>(
-							transformedNetwork);
-					shortestPath = sp.getPath(currNode, destNode).getEdgeList();
-				}
-				catch(Exception e) {
+				roadIDs = this.cachedShortestPath(currentRoad, destRoad, currNode, destNode);
+				if (roadIDs == null) {
 					ContextCreator.logger.error("Cannot find path between " + currNode.getID() + ", " + destNode.getID());
 				}
 			}
 	
 			// Find the roads which are associated with these edges
-			if (shortestPath != null) { // Found the shortest path
+			if (roadIDs != null) { // Found the shortest path
 				roadPath_ = new ArrayList<Road>();
 				roadPath_.add(currentRoad);
-				for (RepastEdge<Node> edge : shortestPath) {
-					int roadID = ContextCreator.getCityContext().getRoadIDFromEdge(edge);
+				for (int roadID : roadIDs) {
 					if(roadID >= 0) {
 						roadPath_.add(ContextCreator.getRoadContext().get(roadID));
 					}
@@ -0,0 +1,62 @@
+package mets_r.data.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the binary copy of a private trip CSV file is converted again
+ * when the CSV file is replaced, even by an older file, and that the trips
+ * are kept in memory when the copy cannot be written.
+ **/
+
+public class PrivateTripFileTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replacedCsvIsConvertedAgain() throws IOException {
+		File csv = this.folder.newFile("trips.csv");
+		this.writeTrips(csv, 3);
+		assertEquals(3, PrivateTripFile.open(csv.getPath()).getTripNum());
+		File bin = new File(PrivateTripFile.getBinaryFileName(csv.getPath()));
+		assertTrue(bin.exists());
+		this.writeTrips(csv, 5);
+		assertTrue(csv.setLastModified(bin.lastModified() - 60000));
+		assertEquals(5, PrivateTripFile.open(csv.getPath()).getTripNum());
+		assertEquals(5, PrivateTripFile.open(csv.getPath()).getTripNum());
+	}
+
+	@Test
+	public void tripsAreKeptInMemoryWhenTheCopyCannotBeWritten() throws IOException {
+		File csv = this.folder.newFile("trips.csv");
+		this.writeTrips(csv, 4);
+		// A non-empty directory in place of the binary copy can be neither read nor replaced
+		File bin = new File(PrivateTripFile.getBinaryFileName(csv.getPath()));
+		assertTrue(bin.mkdir());
+		assertTrue(new File(bin, "keep").createNewFile());
+		PrivateTripFile trips = PrivateTripFile.open(csv.getPath());
+		assertEquals(4, trips.getTripNum());
+		PrivateTripChunk chunk = new PrivateTripChunk();
+		assertEquals(4, trips.readHour(0, chunk));
+		assertTrue(bin.isDirectory());
+		assertTrue(!new File(bin.getPath() + ".tmp").exists());
+	}
+
+	// One trip per vehicle in the first hour
+	private void writeTrips(File csv, int tripNum) throws IOException {
+		try (PrintWriter writer = new PrintWriter(csv)) {
+			writer.println("vid,time_ind,origin,destination");
+			for (int i = 0; i < tripNum; i++) {
+				writer.println(i + "," + (i + 1) + ",0,1");
+			}
+		}
+	}
+}
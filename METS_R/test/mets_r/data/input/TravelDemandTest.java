@@ -0,0 +1,104 @@
+package mets_r.data.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mets_r.GlobalVariables;
+
+/**
+ * Checks that the private trips given to the zones are the same whether the
+ * trips of the next hour are prefetched in the background or loaded at the
+ * hour boundary.
+ **/
+
+public class TravelDemandTest {
+	private static final int ZONE_NUM = 30;
+	private static final int HOUR_NUM = 25;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String evDemandFile;
+	private String gvDemandFile;
+	private boolean prefetch;
+
+	@Before
+	public void saveConfig() {
+		this.evDemandFile = GlobalVariables.EV_DEMAND_FILE;
+		this.gvDemandFile = GlobalVariables.GV_DEMAND_FILE;
+		this.prefetch = GlobalVariables.PRIVATE_DEMAND_PREFETCH;
+	}
+
+	@After
+	public void restoreConfig() {
+		GlobalVariables.EV_DEMAND_FILE = this.evDemandFile;
+		GlobalVariables.GV_DEMAND_FILE = this.gvDemandFile;
+		GlobalVariables.PRIVATE_DEMAND_PREFETCH = this.prefetch;
+	}
+
+	@Test
+	public void prefetchGivesTheSameTrips() throws IOException {
+		Random rand = new Random(1);
+		GlobalVariables.EV_DEMAND_FILE = this.writeTrips("ev.csv", 20000, rand);
+		GlobalVariables.GV_DEMAND_FILE = this.writeTrips("gv.csv", 30000, rand);
+		List<String> loaded = this.readAllTrips(false);
+		List<String> prefetched = this.readAllTrips(true);
+		assertTrue(loaded.size() > 40000); // Trips of the same vehicle and time index are merged
+		assertEquals(loaded, prefetched);
+	}
+
+	// Trips with random vehicles, departure times and zones, in no particular order
+	private String writeTrips(String name, int tripNum, Random rand) throws IOException {
+		File file = this.folder.newFile(name);
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.println("vid,time_ind,origin,destination");
+			for (int i = 0; i < tripNum; i++) {
+				writer.println(rand.nextInt(tripNum) + "," + rand.nextInt(HOUR_NUM * 60 + 1) + "," + rand.nextInt(ZONE_NUM)
+						+ "," + rand.nextInt(ZONE_NUM));
+			}
+		}
+		return file.getPath();
+	}
+
+	// Trips of all zones at each time index, read hour by hour as the zones do, one line per trip
+	private List<String> readAllTrips(boolean prefetch) {
+		GlobalVariables.PRIVATE_DEMAND_PREFETCH = prefetch;
+		TravelDemand demand = new TravelDemand();
+		List<String> trips = new ArrayList<String>();
+		try {
+			for (int hour = 0; hour < HOUR_NUM; hour++) {
+				demand.loadPrivateDemandChunk();
+				for (int timeIndex = hour * 60; timeIndex <= (hour + 1) * 60; timeIndex++) {
+					for (int zone = 0; zone < ZONE_NUM; zone++) {
+						this.addTrips(trips, "EV", timeIndex, zone, demand.getPrivateEVTravelDemand(timeIndex, zone));
+						this.addTrips(trips, "GV", timeIndex, zone, demand.getPrivateGVTravelDemand(timeIndex, zone));
+					}
+				}
+			}
+		} finally {
+			demand.close();
+		}
+		return trips;
+	}
+
+	private void addTrips(List<String> trips, String type, int timeIndex, int zone, Map<Integer, Integer> destinations) {
+		for (Map.Entry<Integer, Integer> trip : new TreeMap<Integer, Integer>(destinations).entrySet()) {
+			trips.add(type + "," + timeIndex + "," + zone + "," + trip.getKey() + "," + trip.getValue());
+		}
+	}
+}
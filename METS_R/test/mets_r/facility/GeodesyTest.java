@@ -0,0 +1,145 @@
+package mets_r.facility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks the tolerance stated in Geodesy against the Vincenty inverse solution
+ * on the WGS84 ellipsoid, over the segments of the NYC road network and over
+ * random segments up to 5 km in the NYC area.
+ **/
+
+public class GeodesyTest {
+	private static final String NYC_ROAD_FILE = "data/NYC/facility/road/road_fileNYC.shp";
+	private static final double DISTANCE_TOLERANCE = 1e-7; // Relative
+	private static final double AZIMUTH_TOLERANCE = 1e-5; // Degrees
+	// Meters, the double coordinates (about 1e-9 m apart) do not give shorter segments to 1e-7
+	private static final double MIN_LENGTH = 0.1;
+
+	private int segmentNum; // Segments checked
+
+	@Test
+	public void nycRoadSegments() throws IOException {
+		File file = new File(NYC_ROAD_FILE);
+		Assume.assumeTrue("NYC road shapefile not found", file.exists());
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			// Polyline records after the 100 bytes header, record headers are big-endian and contents little-endian
+			int position = 100;
+			while (position < buffer.limit()) {
+				buffer.order(ByteOrder.BIG_ENDIAN);
+				int contentLength = 2 * buffer.getInt(position + 4);
+				int content = position + 8;
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				if (buffer.getInt(content) == 3) {
+					int partNum = buffer.getInt(content + 36);
+					int pointNum = buffer.getInt(content + 40);
+					int points = content + 44 + 4 * partNum;
+					for (int part = 0; part < partNum; part++) {
+						int first = buffer.getInt(content + 44 + 4 * part);
+						int last = part + 1 < partNum ? buffer.getInt(content + 48 + 4 * part) : pointNum;
+						for (int i = first; i + 1 < last; i++) {
+							this.check(buffer.getDouble(points + 16 * i), buffer.getDouble(points + 16 * i + 8),
+									buffer.getDouble(points + 16 * i + 16), buffer.getDouble(points + 16 * i + 24));
+						}
+					}
+				}
+				position = content + contentLength;
+			}
+		}
+		assertTrue("No segment read from " + NYC_ROAD_FILE, this.segmentNum > 0);
+	}
+
+	@Test
+	public void randomSegmentsUpTo5km() {
+		Random rand = new Random(7);
+		for (int i = 0; i < 100000; i++) {
+			double lon = -74.26 + 0.56 * rand.nextDouble();
+			double lat = 40.49 + 0.43 * rand.nextDouble();
+			double length = 5000 * rand.nextDouble();
+			double heading = 2 * Math.PI * rand.nextDouble();
+			double lon2 = lon + length * Math.sin(heading) / (111320 * Math.cos(Math.toRadians(lat)));
+			double lat2 = lat + length * Math.cos(heading) / 110540;
+			this.check(lon, lat, lon2, lat2);
+		}
+	}
+
+	@Test
+	public void azimuthConvention() {
+		double[] result = new double[2];
+		Geodesy.distanceAndAzimuth(-74.0, 40.7, -74.0, 40.71, result);
+		assertEquals(0, result[1], AZIMUTH_TOLERANCE); // North
+		Geodesy.distanceAndAzimuth(-74.0, 40.7, -74.0, 40.69, result);
+		assertEquals(180, Math.abs(result[1]), AZIMUTH_TOLERANCE); // South
+		Geodesy.distanceAndAzimuth(-74.0, 40.7, -74.01, 40.7, result);
+		assertTrue(result[1] < -89 && result[1] > -91); // West
+	}
+
+	private void check(double lon1, double lat1, double lon2, double lat2) {
+		double[] expected = vincenty(lon1, lat1, lon2, lat2);
+		if (expected == null || expected[0] < MIN_LENGTH) return;
+		double[] result = new double[2];
+		double distance = Geodesy.distanceAndAzimuth(lon1, lat1, lon2, lat2, result);
+		assertEquals(distance, Geodesy.distance(lon1, lat1, lon2, lat2), 0);
+		double distanceError = Math.abs(distance - expected[0]) / expected[0];
+		double azimuthError = Math.abs(result[1] - expected[1]);
+		azimuthError = Math.min(azimuthError, 360 - azimuthError);
+		this.segmentNum++;
+		assertTrue("Relative distance error " + distanceError + " at " + lon1 + "," + lat1 + " - " + lon2 + "," + lat2,
+				distanceError <= DISTANCE_TOLERANCE);
+		assertTrue("Azimuth error " + azimuthError + " at " + lon1 + "," + lat1 + " - " + lon2 + "," + lat2,
+				azimuthError <= AZIMUTH_TOLERANCE);
+	}
+
+	// Vincenty inverse solution on WGS84, distance in meters and azimuth in degrees, null if it does not converge
+	private static double[] vincenty(double lon1, double lat1, double lon2, double lat2) {
+		double a = 6378137.0;
+		double f = 1 / 298.257223563;
+		double b = a * (1 - f);
+		double L = Math.toRadians(lon2 - lon1);
+		double U1 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat1)));
+		double U2 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat2)));
+		double sinU1 = Math.sin(U1), cosU1 = Math.cos(U1), sinU2 = Math.sin(U2), cosU2 = Math.cos(U2);
+		double lambda = L;
+		double sinSigma, cosSigma, sigma, cos2Alpha, cos2SigmaM, sinLambda, cosLambda;
+		int iteration = 0;
+		while (true) {
+			sinLambda = Math.sin(lambda);
+			cosLambda = Math.cos(lambda);
+			sinSigma = Math.sqrt((cosU2 * sinLambda) * (cosU2 * sinLambda)
+					+ (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda) * (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+			if (sinSigma == 0) return new double[] { 0, 0 };
+			cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+			sigma = Math.atan2(sinSigma, cosSigma);
+			double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+			cos2Alpha = 1 - sinAlpha * sinAlpha;
+			cos2SigmaM = cosSigma - 2 * sinU1 * sinU2 / cos2Alpha;
+			double C = f / 16 * cos2Alpha * (4 + f * (4 - 3 * cos2Alpha));
+			double previous = lambda;
+			lambda = L + (1 - C) * f * sinAlpha
+					* (sigma + C * sinSigma * (cos2SigmaM + C * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+			// Relative test, as lambda is tiny for the short segments
+			if (Math.abs(lambda - previous) <= 1e-15 * Math.abs(lambda)) break;
+			if (++iteration > 200) return null;
+		}
+		double u2 = cos2Alpha * (a * a - b * b) / (b * b);
+		double A = 1 + u2 / 16384 * (4096 + u2 * (-768 + u2 * (320 - 175 * u2)));
+		double B = u2 / 1024 * (256 + u2 * (-128 + u2 * (74 - 47 * u2)));
+		double deltaSigma = B * sinSigma * (cos2SigmaM + B / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+				- B / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+		double distance = b * A * (sigma - deltaSigma);
+		double azimuth = Math.toDegrees(Math.atan2(cosU2 * sinLambda, cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+		return new double[] { distance, azimuth };
+	}
+}
@@ -0,0 +1,159 @@
+package mets_r.facility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.Schedule;
+import repast.simphony.essentials.RepastEssentials;
+import mets_r.ContextCreator;
+import mets_r.GlobalVariables;
+import mets_r.mobility.Vehicle;
+
+/**
+ * Checks that Road.step, which logs and decides the vehicle movements in one
+ * pass over the macro list, gives the same vehicle states at every tick as
+ * walking the macro list three times (logging, calcState, then move) on a
+ * corridor where vehicles enter, follow each other, change lanes and leave.
+ **/
+
+public class RoadStepTest {
+	private static final int LANE_NUM = 3;
+	private static final int TICK_NUM = 600;
+	private static final double EXIT_DISTANCE = 50; // Vehicles leave before reaching the end of the road
+
+	private int initTick;
+	private Random randomGenerator;
+
+	@BeforeClass
+	public static void initSchedule() {
+		if (RunEnvironment.getInstance() == null || RunEnvironment.getInstance().getCurrentSchedule() == null) {
+			RunEnvironment.init(new Schedule(), null, null, true);
+		}
+	}
+
+	@Before
+	public void saveConfig() {
+		this.initTick = ContextCreator.initTick;
+		this.randomGenerator = GlobalVariables.RandomGenerator;
+	}
+
+	@After
+	public void restoreConfig() {
+		ContextCreator.initTick = this.initTick;
+		GlobalVariables.RandomGenerator = this.randomGenerator;
+	}
+
+	@Test
+	public void fusedStepMatchesThreePasses() {
+		List<String> fused = this.run(true);
+		List<String> threePasses = this.run(false);
+		assertEquals(TICK_NUM, fused.size());
+		for (int tick = 0; tick < TICK_NUM; tick++) {
+			assertEquals("Vehicle states differ at tick " + (tick + 1), threePasses.get(tick), fused.get(tick));
+		}
+	}
+
+	// Vehicle states after each tick, the vehicles are named by the order they entered
+	private List<String> run(boolean fused) {
+		GlobalVariables.RandomGenerator = new Random(1);
+		Random rand = new Random(2);
+		Road road = new Road(1);
+		Lane[] lanes = new Lane[LANE_NUM];
+		for (int l = 0; l < LANE_NUM; l++) {
+			lanes[l] = new Lane(l + 1);
+			double y = 40.7 + l * 3e-5;
+			lanes[l].setSegments(new Coordinate[] { new Coordinate(-74.0, y), new Coordinate(-73.99, y),
+					new Coordinate(-73.98, y) });
+			lanes[l].setRoad(road.getID());
+			lanes[l].setSpeed(12 + 2 * l);
+			road.addLane(lanes[l]);
+		}
+		IdentityHashMap<Vehicle, Integer> names = new IdentityHashMap<Vehicle, Integer>();
+		List<String> states = new ArrayList<String>();
+		int maxOnRoad = 0;
+		for (int tick = 1; tick <= TICK_NUM; tick++) {
+			ContextCreator.initTick = (int) RepastEssentials.GetTickCount() - tick;
+			// Vehicles enter a lane with room at its entrance
+			for (Lane lane : lanes) {
+				Vehicle last = lane.lastVehicle();
+				if (rand.nextDouble() < 0.3 && (last == null || last.getDistance() < lane.getLength() - 30)) {
+					Vehicle v = new Vehicle(0, 0);
+					names.put(v, names.size());
+					v.appendToRoad(road);
+					v.appendToLane(lane);
+				}
+			}
+			if (fused) {
+				road.step();
+			} else {
+				threePassStep(road, tick);
+			}
+			// The first vehicles leave near the end of the road
+			for (Lane lane : lanes) {
+				Vehicle v = lane.firstVehicle();
+				while (v != null && v.getDistance() < EXIT_DISTANCE) {
+					Vehicle next = v.trailing();
+					v.removeFromLane();
+					v.removeFromMacroList();
+					v = next;
+				}
+			}
+			StringBuilder state = new StringBuilder();
+			int onRoad = 0;
+			for (Vehicle v = road.firstVehicle(); v != null; v = v.macroTrailing()) {
+				state.append(names.get(v)).append(':').append(road.getLaneIndex(v.getLane())).append(',')
+						.append(v.getDistance()).append(',').append(v.currentSpeed()).append(',').append(v.currentAcc())
+						.append(';');
+				onRoad++;
+			}
+			maxOnRoad = Math.max(maxOnRoad, onRoad);
+			states.add(state.toString());
+		}
+		assertTrue("Too few vehicles on the corridor: " + maxOnRoad, maxOnRoad > 30);
+		return states;
+	}
+
+	// Road.step before the logging and decision passes were fused
+	private static void threePassStep(Road road, int tickcount) {
+		Vehicle currentVehicle = road.firstVehicle();
+		while (currentVehicle != null) {
+			Vehicle nextVehicle = currentVehicle.macroTrailing();
+			currentVehicle.reportStatus();
+			if (tickcount % GlobalVariables.JSON_TICKS_BETWEEN_TWO_RECORDS == 0) {
+				currentVehicle.recVehSnaphotForVisInterp();
+			}
+			currentVehicle = nextVehicle;
+		}
+		currentVehicle = road.firstVehicle();
+		while (currentVehicle != null) {
+			Vehicle nextVehicle = currentVehicle.macroTrailing();
+			if (tickcount > currentVehicle.getAndSetLastVisitTick(tickcount)) {
+				currentVehicle.calcState();
+			}
+			currentVehicle = nextVehicle;
+		}
+		currentVehicle = road.firstVehicle();
+		while (currentVehicle != null) {
+			Vehicle nextVehicle = currentVehicle.macroTrailing();
+			if ((tickcount == currentVehicle.getLastVisitTick())
+					&& (tickcount > currentVehicle.getAndSetLastMoveTick(tickcount))) {
+				currentVehicle.move();
+				currentVehicle.updateBatteryLevel();
+			}
+			currentVehicle = nextVehicle;
+		}
+	}
+}
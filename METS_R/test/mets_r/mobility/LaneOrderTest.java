@@ -0,0 +1,170 @@
+package mets_r.mobility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.Schedule;
+import mets_r.facility.Lane;
+import mets_r.facility.Road;
+
+/**
+ * Checks the leaders and followers on other lanes found through the ordered
+ * vehicle list of each lane against walking the macro list of the road, while
+ * vehicles enter, move forward, make mandatory and discretionary lane changes,
+ * are moved by the co-simulation and leave the road.
+ **/
+
+public class LaneOrderTest {
+	private static final int LANE_NUM = 3;
+	private static final int STEP_NUM = 2000;
+
+	private Road road;
+	private Lane[] lanes;
+	private ArrayList<Vehicle> vehicles;
+	private Random rand;
+
+	// Road.insertVehicle reads the current tick from the schedule
+	@BeforeClass
+	public static void initSchedule() {
+		if (RunEnvironment.getInstance() == null || RunEnvironment.getInstance().getCurrentSchedule() == null) {
+			RunEnvironment.init(new Schedule(), null, null, true);
+		}
+	}
+
+	@Test
+	public void mandatoryLaneChanging() {
+		this.run(1, true);
+	}
+
+	@Test
+	public void discretionaryLaneChanging() {
+		this.run(2, false);
+	}
+
+	private void run(long seed, boolean mandatory) {
+		this.rand = new Random(seed);
+		this.road = new Road(1);
+		this.lanes = new Lane[LANE_NUM];
+		for (int l = 0; l < LANE_NUM; l++) {
+			Lane lane = new Lane(l + 1);
+			double y = 40.7 + l * 1e-5;
+			lane.setSegments(new Coordinate[] { new Coordinate(-74.0, y), new Coordinate(-73.997, y),
+					new Coordinate(-73.994, y) });
+			lane.setRoad(this.road.getID());
+			this.road.addLane(lane);
+			this.lanes[l] = lane;
+		}
+		this.vehicles = new ArrayList<Vehicle>();
+		for (int step = 0; step < STEP_NUM; step++) {
+			double action = this.rand.nextDouble();
+			if (action < 0.2 || this.vehicles.isEmpty()) {
+				this.enter();
+			} else if (action < 0.6) {
+				this.moveForward();
+			} else if (action < 0.9) {
+				Vehicle v = this.vehicles.get(this.rand.nextInt(this.vehicles.size()));
+				Lane target = this.lanes[this.rand.nextInt(LANE_NUM)];
+				if (target != v.getLane()) {
+					if (mandatory) {
+						v.mandatoryLC(target);
+					} else {
+						v.discretionaryLC(target);
+					}
+				}
+			} else {
+				this.coSimMove();
+			}
+			this.leave();
+			this.check();
+		}
+	}
+
+	// A vehicle enters at the end of a random lane, with a fraction tied with the others that just entered
+	private void enter() {
+		Vehicle v = new Vehicle(0, 0);
+		v.appendToRoad(this.road);
+		v.appendToLane(this.lanes[this.rand.nextInt(LANE_NUM)]);
+		this.vehicles.add(v);
+	}
+
+	// Vehicles move from the first to the last one on the road, without overtaking on their lane
+	private void moveForward() {
+		Vehicle v = this.road.firstVehicle();
+		while (v != null) {
+			Vehicle next = v.macroTrailing();
+			if (this.rand.nextBoolean()) {
+				v.setDistance(this.forwardDistance(v));
+				v.advanceInMacroList();
+			}
+			v = next;
+		}
+	}
+
+	// The co-simulation moves a vehicle forward on its lane, sometimes past the vehicles in front
+	private void coSimMove() {
+		Vehicle v = this.vehicles.get(this.rand.nextInt(this.vehicles.size()));
+		Lane lane = v.getLane();
+		double dist = this.rand.nextBoolean() ? this.forwardDistance(v) : v.getDistance() * this.rand.nextDouble();
+		this.road.insertVehicle(v, lane, dist, -73.997, 40.7);
+	}
+
+	// Distance between the current one and the one of the leader, sometimes equal to the leader's
+	private double forwardDistance(Vehicle v) {
+		double front = v.leading() == null ? 0 : v.leading().getDistance();
+		if (this.rand.nextInt(10) == 0) return front;
+		return front + (v.getDistance() - front) * this.rand.nextDouble();
+	}
+
+	// The first vehicle of a lane leaves when it reaches the end
+	private void leave() {
+		for (Lane lane : this.lanes) {
+			Vehicle v = lane.firstVehicle();
+			if (v != null && v.getDistance() < 1) {
+				v.removeFromLane();
+				v.removeFromMacroList();
+				this.vehicles.remove(v);
+			}
+		}
+	}
+
+	private void check() {
+		for (Lane lane : this.lanes) {
+			// The ordered list follows the linked list of the lane
+			int i = 0;
+			for (Vehicle v = lane.firstVehicle(); v != null; v = v.trailing()) {
+				assertSame(v, lane.getVehicle(i++));
+			}
+			assertEquals(i, lane.nVehicles());
+		}
+		for (Vehicle v : this.vehicles) {
+			for (Lane lane : this.lanes) {
+				if (lane == v.getLane()) continue;
+				Vehicle lead = v.macroLeading();
+				while (lead != null && lead.getLane() != lane) {
+					lead = lead.macroLeading();
+				}
+				Vehicle lag = v.macroTrailing();
+				while (lag != null && lag.getLane() != lane) {
+					lag = lag.macroTrailing();
+				}
+				assertSame(lead, v.leadVehicle(lane));
+				assertSame(lag, v.lagVehicle(lane));
+			}
+		}
+		for (Lane lane : this.lanes) {
+			if (lane.nVehicles() == 0) {
+				assertNull(lane.firstVehicle());
+			}
+		}
+	}
+}
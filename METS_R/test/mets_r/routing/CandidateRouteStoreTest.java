@@ -0,0 +1,89 @@
+package mets_r.routing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the route costs kept by CandidateRouteStore against the sum of the
+ * road costs, after many road cost updates and after a save and load.
+ **/
+
+public class CandidateRouteStoreTest {
+	private static final int ROAD_NUM = 50;
+
+	@Test
+	public void routeCostsFollowRoadCosts() {
+		Random rand = new Random(1);
+		CandidateRouteStore store = randomStore(rand);
+		double[] roadCost = new double[ROAD_NUM];
+		for (int r = 0; r < ROAD_NUM; r++) {
+			roadCost[r] = 10 * rand.nextDouble();
+		}
+		store.initCosts(roadID -> roadCost[roadID]);
+		// Congested roads swing between large and small travel times, the additions would leave rounding errors
+		for (int u = 0; u < 200000; u++) {
+			int roadID = rand.nextInt(ROAD_NUM + 10); // Some roads are on no route
+			double cost = rand.nextBoolean() ? 1e6 * rand.nextDouble() : rand.nextDouble();
+			if (roadID < ROAD_NUM) {
+				roadCost[roadID] = cost;
+			}
+			store.updateRoadCost(roadID, cost);
+		}
+		// Bring all roads back to small costs, where an error carried from the large ones would show
+		for (int r = 0; r < ROAD_NUM; r++) {
+			roadCost[r] = rand.nextDouble();
+			store.updateRoadCost(r, roadCost[r]);
+		}
+		for (int i = 0; i < store.size(); i++) {
+			for (int k = 0; k < store.getRouteNum(i); k++) {
+				double sum = 0;
+				for (int j = 0; j < store.getRoadNum(i, k); j++) {
+					sum += roadCost[store.getRoadID(i, k, j)];
+				}
+				assertEquals(sum, store.getRouteCost(i, k), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		Random rand = new Random(2);
+		CandidateRouteStore store = randomStore(rand);
+		File file = File.createTempFile("candidate_routes", ".bin");
+		file.deleteOnExit();
+		store.save(file.getPath());
+		CandidateRouteStore loaded = CandidateRouteStore.load(file.getPath());
+		assertEquals(store.size(), loaded.size());
+		for (int i = 0; i < store.size(); i++) {
+			assertEquals(store.getRoutes(i), loaded.getRoutes(i));
+			assertEquals(i, loaded.indexOf(store.getOrigin(i), store.getDestination(i)));
+		}
+	}
+
+	// OD pairs with up to 3 routes of up to 5 roads
+	private static CandidateRouteStore randomStore(Random rand) {
+		HashMap<Long, List<List<Integer>>> routes = new HashMap<Long, List<List<Integer>>>();
+		for (int od = 0; od < 200; od++) {
+			List<List<Integer>> paths = new ArrayList<List<Integer>>();
+			int routeNum = rand.nextInt(4);
+			for (int k = 0; k < routeNum; k++) {
+				List<Integer> path = new ArrayList<Integer>();
+				int roadNum = rand.nextInt(6);
+				for (int j = 0; j < roadNum; j++) {
+					path.add(rand.nextInt(ROAD_NUM));
+				}
+				paths.add(path);
+			}
+			routes.put(CandidateRouteStore.packOD(od, od + 1), paths);
+		}
+		return new CandidateRouteStore(routes);
+	}
+}
@@ -0,0 +1,115 @@
+package mets_r.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.GraphPath;
+import org.jgrapht.alg.shortestpath.BidirectionalDijkstraShortestPath;
+import org.junit.Assume;
+import org.junit.Test;
+
+import repast.simphony.space.graph.RepastEdge;
+import mets_r.GlobalVariables;
+import mets_r.facility.Node;
+import mets_r.facility.Road;
+
+/**
+ * Compares DijkstraEngine with the JGraphT bidirectional Dijkstra search it
+ * replaced on the NYC road network. Both must find the same path costs, the
+ * paths themselves may differ where several paths have the same cost.
+ *
+ * The graph is built as in CityContext, with a node at each end of a road, an
+ * edge for each road weighted by its free flow travel time and an edge from
+ * each road to each of its downstream roads weighted by the junction delay,
+ * taken as 0 after a highway and as the yield delay otherwise.
+ **/
+
+public class NYCShortestPathTest {
+	static final String NYC_ROAD_FILE = "data/NYC/facility/road/road_fileNYC.csv";
+	private static final int QUERY_NUM = 200;
+
+	@Test
+	public void dijkstraMatchesJGraphT() throws IOException {
+		Assume.assumeTrue("NYC road file not found", new File(NYC_ROAD_FILE).exists());
+		NYCGraph nyc = new NYCGraph();
+		DijkstraEngine engine = new DijkstraEngine(nyc.roadGraph);
+		Random rand = new Random(1);
+		int foundNum = 0;
+		for (int q = 0; q < QUERY_NUM; q++) {
+			Node source = nyc.roads.get(rand.nextInt(nyc.roads.size())).getDownStreamNode();
+			Node target = nyc.roads.get(rand.nextInt(nyc.roads.size())).getUpStreamNode();
+			GraphPath<Node, RepastEdge<Node>> reference = new BidirectionalDijkstraShortestPath<Node, RepastEdge<Node>>(
+					nyc.network).getPath(source, target);
+			int[] path = engine.shortestPath(nyc.roadGraph.getNodeIndex(source), nyc.roadGraph.getNodeIndex(target));
+			if (reference == null) {
+				assertNull(path);
+				continue;
+			}
+			assertNotNull(path);
+			assertEquals(reference.getWeight(), engine.getLastDistance(), 1e-9 * Math.max(1, reference.getWeight()));
+			foundNum++;
+		}
+		assertTrue("No path found on the NYC network", foundNum > 0);
+	}
+
+	static class NYCGraph {
+		SimWeightedGraph<Node, RepastEdge<Node>> network;
+		RoadGraph roadGraph;
+		List<Road> roads = new ArrayList<Road>();
+		HashMap<RepastEdge<Node>, Integer> edgeRoad = new HashMap<RepastEdge<Node>, Integer>(); // -1 inside a junction
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		NYCGraph() throws IOException {
+			this.network = new SimWeightedGraph<Node, RepastEdge<Node>>(
+					(Class<? extends RepastEdge<Node>>) RepastEdge.class);
+			HashMap<Integer, Road> roadByID = new HashMap<Integer, Road>();
+			HashMap<Integer, int[]> downStreamRoads = new HashMap<Integer, int[]>();
+			try (BufferedReader reader = new BufferedReader(new FileReader(NYC_ROAD_FILE))) {
+				reader.readLine(); // LinkID,LaneNum,RoadType,TLinkID,FnJunction,TnJunction,Left,Through,Right,...,Length
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(",");
+					Road road = new Road(Integer.parseInt(fields[0]), Double.parseDouble(fields[fields.length - 1]));
+					road.setRoadType((int) Double.parseDouble(fields[2]));
+					Node node1 = new Node(100 * road.getID() + 1);
+					Node node2 = new Node(100 * road.getID() + 2);
+					road.setUpStreamNode(node1);
+					road.setDownStreamNode(node2);
+					this.network.addVertex(node1);
+					this.network.addVertex(node2);
+					RepastEdge<Node> edge = new RepastEdge<Node>(node1, node2, true,
+							road.getLength() / road.getSpeedLimit());
+					this.network.addEdge(node1, node2, edge);
+					this.edgeRoad.put(edge, road.getID());
+					roadByID.put(road.getID(), road);
+					this.roads.add(road);
+					downStreamRoads.put(road.getID(), new int[] { Integer.parseInt(fields[6]),
+							Integer.parseInt(fields[7]), Integer.parseInt(fields[8]) });
+				}
+			}
+			int yieldDelay = (int) Math.ceil(3 / GlobalVariables.SIMULATION_STEP_SIZE);
+			for (Road r1 : this.roads) {
+				for (int id : downStreamRoads.get(r1.getID())) {
+					Road r2 = roadByID.get(id);
+					if (r2 == null || this.network.containsEdge(r1.getDownStreamNode(), r2.getUpStreamNode())) continue;
+					RepastEdge<Node> edge = new RepastEdge<Node>(r1.getDownStreamNode(), r2.getUpStreamNode(), true,
+							r1.getRoadType() == Road.Highway ? 0 : yieldDelay);
+					this.network.addEdge(r1.getDownStreamNode(), r2.getUpStreamNode(), edge);
+					this.edgeRoad.put(edge, -1);
+				}
+			}
+			this.roadGraph = new RoadGraph(this.network, edge -> this.edgeRoad.get(edge));
+		}
+	}
+}
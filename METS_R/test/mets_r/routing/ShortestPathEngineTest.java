@@ -0,0 +1,182 @@
+package mets_r.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import repast.simphony.space.graph.RepastEdge;
+import mets_r.facility.Junction;
+import mets_r.facility.Node;
+
+/**
+ * Compares the A* and contraction hierarchy engines with Dijkstra's algorithm
+ * on small random road graphs, before and after the edge weights change.
+ **/
+
+public class ShortestPathEngineTest {
+	private static final int QUERY_NUM = 300;
+	private static final double TOLERANCE = 1e-9;
+
+	private RoadGraph graph;
+	private ArrayList<Integer> roadEdges; // Edge of the RoadGraph of each road ID
+	private Random rand;
+
+	@Test
+	public void aStarMatchesDijkstra() {
+		this.rand = new Random(1);
+		for (int trial = 0; trial < 20; trial++) {
+			this.buildGraph();
+			AStarEngine engine = new AStarEngine(this.graph);
+			this.compare(engine);
+			// Faster edges raise the speed bound, slower ones leave it loose until it is recomputed
+			this.changeWeights(0.3);
+			this.compare(engine);
+			this.graph.updateSpeedBound();
+			this.compare(engine);
+		}
+	}
+
+	@Test
+	public void contractionHierarchyMatchesDijkstra() {
+		this.rand = new Random(2);
+		for (int trial = 0; trial < 20; trial++) {
+			this.buildGraph();
+			ContractionHierarchy ch = new ContractionHierarchy(this.graph);
+			ch.customize();
+			CHEngine engine = new CHEngine(ch);
+			this.compare(engine);
+			// Incremental customization after a few edges change
+			int[] changed = this.changeWeights(0.1);
+			ch.customize(changed, changed.length);
+			this.compare(engine);
+			// Zero weights give ties between paths
+			changed = this.changeWeights(0.05, 0);
+			ch.customize(changed, changed.length);
+			this.compare(engine);
+		}
+	}
+
+	@Test
+	public void verifyEngineFailsOnMismatch() {
+		this.rand = new Random(3);
+		this.buildGraph();
+		VehicleRouting.verifyEngine(this.graph, new AStarEngine(this.graph), 100);
+		DijkstraEngine reference = new DijkstraEngine(this.graph);
+		ShortestPathEngine wrong = new ShortestPathEngine() {
+			@Override
+			public int[] shortestPath(int source, int target) {
+				return reference.shortestPath(source, target);
+			}
+
+			@Override
+			public double getLastDistance() {
+				return reference.getLastDistance() + 1;
+			}
+		};
+		try {
+			VehicleRouting.verifyEngine(this.graph, wrong, 100);
+			fail("verifyEngine accepted wrong path costs");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("differ from Dijkstra"));
+		}
+	}
+
+	// Grid of junctions in the NYC area with a few missing streets and a few long links
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void buildGraph() {
+		int side = 5 + this.rand.nextInt(20);
+		int nodeNum = side * side;
+		Node[] nodes = new Node[nodeNum];
+		SimWeightedGraph<Node, RepastEdge<Node>> network = new SimWeightedGraph<Node, RepastEdge<Node>>(
+				(Class<? extends RepastEdge<Node>>) RepastEdge.class);
+		for (int i = 0; i < nodeNum; i++) {
+			Junction junction = new Junction(i);
+			junction.setCoord(new Coordinate(-74.0 + 0.002 * (i % side), 40.7 + 0.002 * (i / side)));
+			nodes[i] = new Node(i);
+			nodes[i].setJunction(junction);
+			network.addVertex(nodes[i]);
+		}
+		HashMap<RepastEdge<Node>, Integer> edgeRoad = new HashMap<RepastEdge<Node>, Integer>();
+		for (int i = 0; i < nodeNum; i++) {
+			int x = i % side;
+			int y = i / side;
+			int[][] neighbors = { { x + 1, y }, { x - 1, y }, { x, y + 1 }, { x, y - 1 } };
+			for (int[] q : neighbors) {
+				if (q[0] < 0 || q[1] < 0 || q[0] >= side || q[1] >= side || this.rand.nextInt(5) == 0) continue;
+				this.addEdge(network, edgeRoad, nodes[i], nodes[q[1] * side + q[0]]);
+			}
+			if (this.rand.nextInt(10) == 0) {
+				int j = this.rand.nextInt(nodeNum);
+				if (j != i && network.getEdge(nodes[i], nodes[j]) == null) {
+					this.addEdge(network, edgeRoad, nodes[i], nodes[j]);
+				}
+			}
+		}
+		this.graph = new RoadGraph(network, edge -> edgeRoad.get(edge));
+		this.roadEdges = new ArrayList<Integer>();
+		for (int road = 0; road < edgeRoad.size(); road++) {
+			this.roadEdges.add(this.graph.getRoadEdge(road));
+		}
+	}
+
+	private void addEdge(SimWeightedGraph<Node, RepastEdge<Node>> network, HashMap<RepastEdge<Node>, Integer> edgeRoad,
+			Node source, Node target) {
+		RepastEdge<Node> edge = new RepastEdge<Node>(source, target, true, 10 + 100 * this.rand.nextDouble());
+		network.addEdge(source, target, edge);
+		edgeRoad.put(edge, edgeRoad.size());
+	}
+
+	// Give a share of the edges a new weight, from 0.2 to 5 times the current one
+	private int[] changeWeights(double share) {
+		return this.changeWeights(share, -1);
+	}
+
+	// Same as above, with the given weight if it is not negative
+	private int[] changeWeights(double share, double weight) {
+		ArrayList<Integer> changed = new ArrayList<Integer>();
+		for (int e = 0; e < this.graph.getEdgeNum(); e++) {
+			if (this.rand.nextDouble() >= share) continue;
+			double w = weight >= 0 ? weight : this.graph.getEdgeWeight(e) * Math.exp(Math.log(5) * (2 * this.rand.nextDouble() - 1));
+			this.graph.setEdgeWeight(e, w);
+			changed.add(e);
+		}
+		return changed.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private void compare(ShortestPathEngine engine) {
+		DijkstraEngine reference = new DijkstraEngine(this.graph);
+		for (int q = 0; q < QUERY_NUM; q++) {
+			int source = this.rand.nextInt(this.graph.getNodeNum());
+			int target = this.rand.nextInt(this.graph.getNodeNum());
+			int[] path = engine.shortestPath(source, target);
+			int[] referencePath = reference.shortestPath(source, target);
+			if (referencePath == null) {
+				assertNull(path);
+				continue;
+			}
+			assertNotNull(path);
+			assertEquals(reference.getLastDistance(), engine.getLastDistance(), TOLERANCE);
+			// The roads of the path connect the source to the target and add up to its cost
+			int node = source;
+			double cost = 0;
+			for (int road : path) {
+				int e = this.roadEdges.get(road);
+				assertEquals(node, this.graph.getEdgeTail(e));
+				node = this.graph.getEdgeHead(e);
+				cost += this.graph.getEdgeWeight(e);
+			}
+			assertEquals(target, node);
+			assertEquals(engine.getLastDistance(), cost, TOLERANCE);
+		}
+	}
+}